@@ -0,0 +1,68 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kjetland.dropwizard.activemq.benchmarks.Event;
+import io.dropwizard.jackson.Jackson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares encoding and decoding with the json, smile and cbor codecs.
+ * The size of the encoded event is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({MessageCodecs.JSON, MessageCodecs.SMILE, MessageCodecs.CBOR})
+    public String codecName;
+
+    @Param({"2", "500"})
+    public int tagCount;
+
+    private MessageCodec codec;
+    private MessageDecoder<Event> decoder;
+    private Event event;
+    private byte[] encoded;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setUp() throws Exception {
+        ObjectMapper objectMapper = Jackson.newObjectMapper();
+        codec = new MessageCodecs(objectMapper).getByName(codecName);
+        decoder = codec.createDecoder(objectMapper.constructType(Event.class));
+        event = Event.create(1, tagCount);
+
+        codec.encode(event, buffer);
+        encoded = buffer.toByteArray();
+        System.out.println(codecName + " with " + tagCount + " tags: " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public int encode() throws Exception {
+        buffer.reset();
+        codec.encode(event, buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Event decode() throws Exception {
+        return decoder.decode(encoded, 0, encoded.length);
+    }
+}
@@ -0,0 +1,108 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kjetland.dropwizard.activemq.benchmarks.Event;
+import io.dropwizard.jackson.Jackson;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per second sent with ActiveMQSenderImpl and received by an ActiveMQReceiverHandler
+ * through an embedded broker (vm://). Each invocation sends a batch of messages and waits until all of them
+ * are received, so this includes encoding, the broker, decoding and acknowledging.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"false", "true"})
+    public boolean useMessageListener;
+
+    @Param({"false", "true"})
+    public boolean useBytesMessage;
+
+    private BrokerService broker;
+    private PooledConnectionFactory connectionFactory;
+    private ActiveMQReceiverHandler<Event> handler;
+    private ActiveMQSender sender;
+    private final Semaphore received = new Semaphore(0);
+    private Event event;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("endToEnd");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+
+        final ActiveMQConnectionFactory realConnectionFactory = new ActiveMQConnectionFactory("vm://endToEnd?create=false");
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(realConnectionFactory);
+        connectionFactory.start();
+
+        final ObjectMapper objectMapper = Jackson.newObjectMapper();
+
+        final ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.useMessageListener = useMessageListener;
+        // Like the bundle, the receiver uses the real connectionFactory
+        handler = new ActiveMQReceiverHandler<>(
+                "endToEnd-queue",
+                realConnectionFactory,
+                (event) -> received.release(),
+                Event.class,
+                objectMapper,
+                (jmsMessage, m, e) -> true,
+                1,
+                receiverConfig);
+        handler.start();
+
+        final ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.useBytesMessage = useBytesMessage;
+        senderConfig.cacheProducers = true;
+        sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, "endToEnd-queue", Optional.empty(), false, senderConfig);
+        event = Event.create(1);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sender.close();
+        handler.stop();
+        connectionFactory.stop();
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void sendAndReceive() throws InterruptedException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            sender.send(event);
+        }
+        received.acquire(BATCH_SIZE);
+    }
+}
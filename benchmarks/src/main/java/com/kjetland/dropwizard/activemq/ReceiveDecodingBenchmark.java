@@ -0,0 +1,137 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.kjetland.dropwizard.activemq.benchmarks.Event;
+import io.dropwizard.jackson.Jackson;
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a received json-message with ObjectMapper.readValue(json, type) (as the handler used to do)
+ * against the ObjectReader the handler now resolves once per receiverType,
+ * and decoding a TextMessage against decoding the same json from a BytesMessage.
+ * Also compares receiving the json as an Event, as a String and as a Map.
+ *
+ * Lives in the com.kjetland.dropwizard.activemq package to be able to call ActiveMQReceiverHandler.decode().
+ * Run with "-prof gc" to see the allocations per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceiveDecodingBenchmark {
+
+    // Number of tags in the event, to compare small and large messages
+    @Param({"2", "500"})
+    public int tagCount;
+
+    private ObjectMapper objectMapper;
+    private ObjectReader objectReader;
+    private ActiveMQReceiverHandler<Event> handler;
+    private ActiveMQReceiverHandler<String> stringHandler;
+    private ActiveMQReceiverHandler<Map> mapHandler;
+    private ActiveMQTextMessage message;
+    private ActiveMQBytesMessage bytesMessage;
+    private String json;
+
+    @Setup
+    public void setUp() throws Exception {
+        objectMapper = Jackson.newObjectMapper();
+        objectReader = objectMapper.readerFor(Event.class);
+        json = objectMapper.writeValueAsString(Event.create(1, tagCount));
+
+        // Store the text as it is when received from the broker
+        message = new ActiveMQTextMessage();
+        message.setText(json);
+        message.storeContentAndClear();
+
+        bytesMessage = new ActiveMQBytesMessage();
+        bytesMessage.writeBytes(json.getBytes(StandardCharsets.UTF_8));
+        bytesMessage.reset();
+
+        handler = new ActiveMQReceiverHandler<>(
+                "benchmark",
+                null,
+                (event) -> { },
+                Event.class,
+                objectMapper,
+                (jmsMessage, m, e) -> true,
+                1);
+        stringHandler = new ActiveMQReceiverHandler<>(
+                "benchmark",
+                null,
+                (text) -> { },
+                String.class,
+                objectMapper,
+                (jmsMessage, m, e) -> true,
+                1);
+        mapHandler = new ActiveMQReceiverHandler<>(
+                "benchmark",
+                null,
+                (map) -> { },
+                Map.class,
+                objectMapper,
+                (jmsMessage, m, e) -> true,
+                1);
+    }
+
+    @Benchmark
+    public Event objectMapperReadValue() throws Exception {
+        return objectMapper.readValue(json, Event.class);
+    }
+
+    @Benchmark
+    public Event objectReaderReadValue() throws Exception {
+        return objectReader.readValue(json);
+    }
+
+    @Benchmark
+    public Event handlerDecode() throws Exception {
+        return handler.decode(message, json);
+    }
+
+    // Includes getting the text from the message, like the handler does when receiving.
+    // The messages are copied since an ActiveMQTextMessage keeps its text after the first getText()
+    @Benchmark
+    public Event handlerDecodeTextMessage() throws Exception {
+        ActiveMQMessage received = (ActiveMQMessage) message.copy();
+        return handler.decode(received, handler.getText(received));
+    }
+
+    @Benchmark
+    public Event handlerDecodeBytesMessage() throws Exception {
+        ActiveMQMessage received = (ActiveMQMessage) bytesMessage.copy();
+        return handler.decode(received, handler.getText(received));
+    }
+
+    @Benchmark
+    public String handlerDecodeTextMessageToString() throws Exception {
+        ActiveMQMessage received = (ActiveMQMessage) message.copy();
+        return stringHandler.decode(received, stringHandler.getText(received));
+    }
+
+    @Benchmark
+    public Map handlerDecodeTextMessageToMap() throws Exception {
+        ActiveMQMessage received = (ActiveMQMessage) message.copy();
+        return mapHandler.decode(received, mapHandler.getText(received));
+    }
+}
@@ -0,0 +1,87 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kjetland.dropwizard.activemq.benchmarks.Event;
+import io.dropwizard.jackson.Jackson;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jms.ConnectionFactory;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per second sent by ActiveMQSenderImpl to an embedded broker (vm://), with and without cached producers,
+ * and with and without the PooledConnectionFactory used by the bundle.
+ * The broker is not persistent, so this measures the client-side cost of sending.
+ * Nobody consumes the messages, but the broker discards them since they expire after 1 second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class SendBenchmark {
+
+    @Param({"false", "true"})
+    public boolean cacheProducers;
+
+    // Without the pool, every send (without cached producers) opens and closes a connection
+    @Param({"true", "false"})
+    public boolean pooled;
+
+    private BrokerService broker;
+    private PooledConnectionFactory pooledConnectionFactory;
+    private ActiveMQSender sender;
+    private Event event;
+
+    @Setup
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("benchmark");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+
+        final ActiveMQConnectionFactory realConnectionFactory = new ActiveMQConnectionFactory("vm://benchmark?create=false");
+        pooledConnectionFactory = new PooledConnectionFactory();
+        pooledConnectionFactory.setConnectionFactory(realConnectionFactory);
+        pooledConnectionFactory.start();
+        final ConnectionFactory connectionFactory = pooled ? pooledConnectionFactory : realConnectionFactory;
+
+        ObjectMapper objectMapper = Jackson.newObjectMapper();
+        ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.cacheProducers = cacheProducers;
+        sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, "benchmark-queue", Optional.of(1), false, senderConfig);
+        event = Event.create(1);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sender.close();
+        pooledConnectionFactory.stop();
+        broker.stop();
+        broker.waitUntilStopped();
+    }
+
+    @Benchmark
+    public void send() {
+        sender.send(event);
+    }
+}
@@ -0,0 +1,41 @@
+package com.kjetland.dropwizard.activemq.benchmarks;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A typical smallish message
+public class Event {
+
+    @JsonProperty
+    public String id;
+
+    @JsonProperty
+    public String type;
+
+    @JsonProperty
+    public long timestamp;
+
+    @JsonProperty
+    public double value;
+
+    @JsonProperty
+    public List<String> tags = new ArrayList<>();
+
+    public static Event create(int i) {
+        return create(i, 2);
+    }
+
+    public static Event create(int i, int tagCount) {
+        Event event = new Event();
+        event.id = "event-" + i;
+        event.type = "measurement";
+        event.timestamp = 1476700000000L + i;
+        event.value = i * 1.5;
+        for (int t = 0; t < tagCount; t++) {
+            event.tags.add("tag-" + t);
+        }
+        return event;
+    }
+}
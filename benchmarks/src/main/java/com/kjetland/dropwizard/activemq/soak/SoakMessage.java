@@ -0,0 +1,14 @@
+package com.kjetland.dropwizard.activemq.soak;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Carries the time it was sent, since receivers only get the decoded message
+public class SoakMessage {
+
+    // System.nanoTime() when sending. Only comparable within the same JVM
+    @JsonProperty
+    public long sentNanos;
+
+    @JsonProperty
+    public String payload;
+}
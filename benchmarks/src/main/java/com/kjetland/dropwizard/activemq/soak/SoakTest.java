@@ -0,0 +1,202 @@
+package com.kjetland.dropwizard.activemq.soak;
+
+import com.codahale.metrics.MetricRegistry;
+import com.kjetland.dropwizard.activemq.ActiveMQBundle;
+import com.kjetland.dropwizard.activemq.ActiveMQConfig;
+import com.kjetland.dropwizard.activemq.ActiveMQPoolConfig;
+import com.kjetland.dropwizard.activemq.ActiveMQReceiverConfig;
+import com.kjetland.dropwizard.activemq.ActiveMQSender;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.setup.Environment;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.apache.activemq.broker.BrokerService;
+import org.eclipse.jetty.util.component.LifeCycle;
+
+import javax.validation.Validation;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Soak test sending and receiving through ActiveMQBundle, like an application would.
+ *
+ * Starts an embedded broker (unless soak.brokerUrl is set), soak.senders threads sending with one shared sender,
+ * and a receiver with soak.receivers concurrent consumers. Every second it prints the number of messages
+ * sent and received, and the end-to-end latency percentiles. The latency of every interval is written to
+ * an HdrHistogram log (soak.histogramLog), which can be plotted with HistogramLogAnalyzer or similar.
+ *
+ * The send time is carried in the message, since receivers do not see the JMS message (and JMSTimestamp only
+ * has millisecond resolution). Senders and receivers must therefore run in the same JVM.
+ *
+ * Run with:
+ * java -Dsoak.senders=8 -Dsoak.receivers=4 -Dsoak.durationSeconds=600 -cp target/benchmarks.jar com.kjetland.dropwizard.activemq.soak.SoakTest
+ */
+public class SoakTest {
+
+    private static final String DESTINATION = "soak-queue";
+
+    private final int senders = Integer.getInteger("soak.senders", 4);
+    private final int receivers = Integer.getInteger("soak.receivers", 4);
+    private final int durationSeconds = Integer.getInteger("soak.durationSeconds", 60);
+    // Messages per second per sender. 0 means as fast as possible
+    private final int ratePerSender = Integer.getInteger("soak.ratePerSender", 1000);
+    private final int messageSize = Integer.getInteger("soak.messageSize", 256);
+    private final boolean persistent = Boolean.getBoolean("soak.persistent");
+    private final String brokerUrl = System.getProperty("soak.brokerUrl");
+    private final String histogramLog = System.getProperty("soak.histogramLog", "soak-latency.hlog");
+    // Pool settings to validate. Not set means the defaults of the PooledConnectionFactory
+    private final Integer maxConnections = Integer.getInteger("soak.pool.maxConnections");
+    private final Integer maximumActiveSessionPerConnection = Integer.getInteger("soak.pool.maximumActiveSessionPerConnection");
+
+    // Latencies in microseconds, up to one hour
+    private final Recorder latencies = new Recorder(TimeUnit.HOURS.toMicros(1), 3);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final AtomicBoolean stopping = new AtomicBoolean(false);
+
+    public static void main(String[] args) throws Exception {
+        new SoakTest().run();
+    }
+
+    private void run() throws Exception {
+        BrokerService broker = null;
+        if (brokerUrl == null) {
+            broker = new BrokerService();
+            broker.setBrokerName("soak");
+            broker.setPersistent(persistent);
+            broker.setUseJmx(false);
+            broker.start();
+        }
+
+        final Environment environment = new Environment("soak", Jackson.newObjectMapper(),
+                Validation.buildDefaultValidatorFactory().getValidator(), new MetricRegistry(), SoakTest.class.getClassLoader());
+
+        final ActiveMQConfig activeMQConfig = new ActiveMQConfig();
+        activeMQConfig.brokerUrl = brokerUrl != null ? brokerUrl : "vm://soak?create=false";
+        activeMQConfig.pool = new ActiveMQPoolConfig();
+        activeMQConfig.pool.maxConnections = maxConnections;
+        activeMQConfig.pool.maximumActiveSessionPerConnection = maximumActiveSessionPerConnection;
+
+        final ActiveMQBundle bundle = new ActiveMQBundle();
+        bundle.init(activeMQConfig, environment);
+
+        final ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.concurrentConsumers = receivers;
+        receiverConfig.maxConcurrentConsumers = receivers;
+        bundle.registerReceiver(DESTINATION, this::receive, SoakMessage.class, (jmsMessage, message, exception) -> true, receiverConfig);
+        final ActiveMQSender sender = bundle.createSender(DESTINATION, persistent);
+
+        final List<LifeCycle> managedObjects = environment.lifecycle().getManagedObjects();
+        for (LifeCycle managed : managedObjects) {
+            managed.start();
+        }
+
+        System.out.println("Soak test: " + senders + " senders, " + receivers + " receivers, "
+                + (ratePerSender > 0 ? ratePerSender + " messages/second per sender" : "max rate") + ", "
+                + messageSize + " bytes payload, persistent=" + persistent + ", for " + durationSeconds + " seconds. "
+                + "Pool: " + activeMQConfig.pool);
+
+        final List<Thread> senderThreads = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            final Thread thread = new Thread(() -> send(sender), "soak-sender-" + i);
+            thread.start();
+            senderThreads.add(thread);
+        }
+
+        report();
+
+        stopping.set(true);
+        for (Thread thread : senderThreads) {
+            thread.join();
+        }
+        Collections.reverse(managedObjects);
+        for (LifeCycle managed : managedObjects) {
+            managed.stop();
+        }
+        if (broker != null) {
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+    }
+
+    private void send(ActiveMQSender sender) {
+        final StringBuilder payload = new StringBuilder(messageSize);
+        for (int i = 0; i < messageSize; i++) {
+            payload.append((char) ('a' + i % 26));
+        }
+        final SoakMessage message = new SoakMessage();
+        message.payload = payload.toString();
+
+        final long intervalNanos = ratePerSender > 0 ? TimeUnit.SECONDS.toNanos(1) / ratePerSender : 0;
+        long nextSend = System.nanoTime();
+        while (!stopping.get()) {
+            if (intervalNanos > 0) {
+                final long wait = nextSend - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                nextSend += intervalNanos;
+            }
+            message.sentNanos = System.nanoTime();
+            try {
+                sender.send(message);
+                sent.increment();
+            } catch (RuntimeException e) {
+                sendErrors.increment();
+            }
+        }
+    }
+
+    private void receive(SoakMessage message) {
+        latencies.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - message.sentNanos)));
+        received.increment();
+    }
+
+    private void report() throws Exception {
+        final Histogram total = new Histogram(TimeUnit.HOURS.toMicros(1), 3);
+        try (PrintStream log = new PrintStream(new File(histogramLog))) {
+            final HistogramLogWriter logWriter = new HistogramLogWriter(log);
+            final long startMillis = System.currentTimeMillis();
+            logWriter.outputLogFormatVersion();
+            logWriter.outputStartTime(startMillis);
+            logWriter.setBaseTime(startMillis);
+            logWriter.outputLegend();
+
+            Histogram interval = null;
+            long lastSent = 0;
+            long lastReceived = 0;
+            for (int second = 1; second <= durationSeconds; second++) {
+                // Behind after e.g. a GC-pause: Report right away and catch up
+                Thread.sleep(Math.max(0, startMillis + TimeUnit.SECONDS.toMillis(second) - System.currentTimeMillis()));
+
+                interval = latencies.getIntervalHistogram(interval);
+                logWriter.outputIntervalHistogram(interval);
+                total.add(interval);
+
+                final long sentNow = sent.sum();
+                final long receivedNow = received.sum();
+                System.out.println(String.format("%5ds  sent/s: %7d  received/s: %7d  send errors: %d  latency us p50: %d  p99: %d  p99.9: %d  max: %d",
+                        second, sentNow - lastSent, receivedNow - lastReceived, sendErrors.sum(),
+                        interval.getValueAtPercentile(50), interval.getValueAtPercentile(99),
+                        interval.getValueAtPercentile(99.9), interval.getMaxValue()));
+                lastSent = sentNow;
+                lastReceived = receivedNow;
+            }
+        }
+
+        System.out.println(String.format("Total: sent %d, received %d (%.0f/s), send errors %d",
+                sent.sum(), received.sum(), (double) received.sum() / durationSeconds, sendErrors.sum()));
+        System.out.println("End-to-end latency in microseconds:");
+        total.outputPercentileDistribution(System.out, 5, 1.0);
+        System.out.println("Latency per second written to " + histogramLog);
+    }
+}
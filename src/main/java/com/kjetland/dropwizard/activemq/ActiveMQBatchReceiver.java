@@ -0,0 +1,8 @@
+package com.kjetland.dropwizard.activemq;
+
+import java.util.List;
+
+public interface ActiveMQBatchReceiver<T> {
+
+    void receive(List<T> messages);
+}
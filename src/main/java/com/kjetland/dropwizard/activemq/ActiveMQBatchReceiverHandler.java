@@ -0,0 +1,146 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.apache.activemq.ActiveMQMessageConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects up to maxBatchSize messages (waiting max maxBatchWaitMillis after the first one)
+ * and passes them to the ActiveMQBatchReceiver in one call.
+ *
+ * The whole batch is acknowledged (or rolled back) at once.
+ * If a single message can not be decoded, the exceptionHandler decides if we should skip it (return true)
+ * or rollback the whole batch (return false).
+ * If the batchReceiver fails, the exceptionHandler is called once with the last message of the batch.
+ */
+public class ActiveMQBatchReceiverHandler<T> extends ActiveMQReceiverHandler<T> {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ActiveMQBatchReceiver<T> batchReceiver;
+
+    public ActiveMQBatchReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQBatchReceiver<T> batchReceiver,
+            JavaType receiverType,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig) {
+        this(destination, connectionFactory, batchReceiver, receiverType, objectMapper, exceptionHandler, shutdownWaitInSeconds,
+                receiverConfig, new MessageCodecs(objectMapper));
+    }
+
+    public ActiveMQBatchReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQBatchReceiver<T> batchReceiver,
+            JavaType receiverType,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig,
+            MessageCodecs codecs) {
+
+        super(destination, connectionFactory, (message) -> batchReceiver.receive(Collections.singletonList(message)),
+                receiverType, objectMapper, exceptionHandler, shutdownWaitInSeconds, receiverConfig, codecs);
+
+        if (receiverConfig.useMessageListener) {
+            throw new IllegalArgumentException("Batch receivers can not use MessageListener");
+        }
+        if (receiverConfig.isTransacted()) {
+            throw new IllegalArgumentException("Batch receivers are already acknowledged once per batch and can not be transacted");
+        }
+        if (receiverConfig.maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        this.batchReceiver = batchReceiver;
+    }
+
+    public ActiveMQBatchReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQBatchReceiver<T> batchReceiver,
+            Class<? extends T> receiverType,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig) {
+        this(destination, connectionFactory, batchReceiver, TypeFactory.defaultInstance().constructType(receiverType), objectMapper,
+                exceptionHandler, shutdownWaitInSeconds, receiverConfig);
+    }
+
+    @Override
+    protected void onMessageReceived(ActiveMQMessageConsumer messageConsumer, Message message) throws JMSException {
+        final List<Message> messages = new ArrayList<>(Math.min(receiverConfig.maxBatchSize, 1000));
+        messages.add(message);
+
+        final long deadline = System.currentTimeMillis() + receiverConfig.maxBatchWaitMillis;
+        while (messages.size() < receiverConfig.maxBatchSize && !shouldStop.get()) {
+            final long timeLeft = deadline - System.currentTimeMillis();
+            // receive(0) would block forever
+            final Message next = timeLeft > 0 ? messageConsumer.receive(timeLeft) : messageConsumer.receiveNoWait();
+            if (next == null) {
+                break;
+            }
+            onReceived(next);
+            messages.add(next);
+        }
+
+        processBatch(messageConsumer, messages);
+    }
+
+    private void processBatch(ActiveMQMessageConsumer messageConsumer, List<Message> messages) {
+        if (log.isDebugEnabled()) {
+            log.debug("Processing batch of {} messages", messages.size());
+        }
+
+        final List<T> objects = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            String json = null;
+            try {
+                json = getText(message);
+                objects.add(decode(message, json));
+            } catch (Exception e) {
+                if (!onException(message, json, e)) {
+                    rollback(messageConsumer);
+                    return;
+                }
+                // Skip it - it will be acknowledged together with the rest of the batch
+            }
+        }
+
+        // With CLIENT_ACKNOWLEDGE, acknowledging the last message acknowledges all messages in the batch
+        final Message lastMessage = messages.get(messages.size() - 1);
+        try {
+            if (!objects.isEmpty()) {
+                final Timer.Context processTime = metrics.process.time();
+                try {
+                    batchReceiver.receive(objects);
+                } finally {
+                    processTime.stop();
+                }
+            }
+            lastMessage.acknowledge();
+            metrics.acknowledged.mark(messages.size());
+        } catch (Exception e) {
+            if (onException(lastMessage, null, e)) {
+                acknowledge(lastMessage);
+                metrics.acknowledged.mark(messages.size());
+            } else {
+                rollback(messageConsumer);
+            }
+        }
+    }
+}
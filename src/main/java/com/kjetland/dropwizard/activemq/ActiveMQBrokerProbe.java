@@ -0,0 +1,154 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.health.HealthCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.TextMessage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Health check sending a message to the broker and back via a temporary queue, like ActiveMQHealthCheck,
+ * but in the background every intervalMillis instead of each time the health check runs.
+ *
+ * The connection, session, temporary queue, producer and consumer are kept open between the probes,
+ * and re-created after an error. The health check returns the result of the last probe, so it is cheap to call.
+ * The round-trip time of each successful probe is recorded in the latency timer.
+ */
+public class ActiveMQBrokerProbe extends HealthCheck {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ConnectionFactory connectionFactory;
+    private final long millisecondsToWait;
+    private final long intervalMillis;
+    private final Timer latency;
+    private ScheduledExecutorService scheduler;
+    private volatile Result lastResult = Result.unhealthy("The broker has not been probed yet");
+    private volatile long lastProbeMillis = 0;
+    // Only used by the probing thread
+    private long probeCount = 0;
+    private Connection connection;
+    private Session session;
+    private TemporaryQueue tempQueue;
+    private MessageProducer producer;
+    private MessageConsumer consumer;
+
+    public ActiveMQBrokerProbe(ConnectionFactory connectionFactory, long millisecondsToWait, long intervalMillis, Timer latency) {
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("intervalMillis must be at least 1");
+        }
+        this.connectionFactory = connectionFactory;
+        this.millisecondsToWait = millisecondsToWait;
+        this.intervalMillis = intervalMillis;
+        this.latency = latency;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "ActiveMQ broker probe");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::probe, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        ActiveMQUtils.silent(() -> scheduler.awaitTermination(millisecondsToWait + 1000, TimeUnit.MILLISECONDS));
+        scheduler = null;
+        closeResources();
+        lastResult = Result.unhealthy("The broker probe is stopped");
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        // The probe should never take much longer than millisecondsToWait, so something is stuck if it has not run for a while
+        final long millisSinceLastProbe = System.currentTimeMillis() - lastProbeMillis;
+        if (lastProbeMillis > 0 && millisSinceLastProbe > 3 * intervalMillis + millisecondsToWait) {
+            return Result.unhealthy("The broker was last probed " + millisSinceLastProbe + " ms ago");
+        }
+        return lastResult;
+    }
+
+    void probe() {
+        try {
+            lastResult = roundTrip();
+        } catch (Exception e) {
+            log.debug("Error probing the broker", e);
+            closeResources();
+            lastResult = Result.unhealthy("Error probing the broker: " + e);
+        }
+        lastProbeMillis = System.currentTimeMillis();
+    }
+
+    private Result roundTrip() throws JMSException {
+        if (connection == null) {
+            open();
+        }
+        final String messageText = "Probe message-" + (++probeCount);
+        final long start = System.nanoTime();
+        producer.send(session.createTextMessage(messageText));
+
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(millisecondsToWait);
+        long timeLeftMillis;
+        while ((timeLeftMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
+            final Message receivedMessage = consumer.receive(timeLeftMillis);
+            if (receivedMessage == null) {
+                break;
+            }
+            // Skip late messages from earlier probes
+            if (receivedMessage instanceof TextMessage && messageText.equals(((TextMessage) receivedMessage).getText())) {
+                final long nanos = System.nanoTime() - start;
+                latency.update(nanos, TimeUnit.NANOSECONDS);
+                return Result.healthy("Round-trip to the broker took " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+            }
+        }
+        return Result.unhealthy("Did not receive testMessage via tempQueue in " + millisecondsToWait + " milliseconds");
+    }
+
+    private void open() throws JMSException {
+        try {
+            connection = connectionFactory.createConnection();
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            tempQueue = session.createTemporaryQueue();
+            producer = session.createProducer(tempQueue);
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            consumer = session.createConsumer(tempQueue);
+        } catch (JMSException e) {
+            closeResources();
+            throw e;
+        }
+    }
+
+    private void closeResources() {
+        if (connection != null) {
+            // Closing the connection closes the rest, and deletes the temporary queue
+            final Connection c = connection;
+            ActiveMQUtils.silent(() -> c.close());
+        }
+        connection = null;
+        session = null;
+        tempQueue = null;
+        producer = null;
+        consumer = null;
+    }
+}
@@ -1,5 +1,8 @@
 package com.kjetland.dropwizard.activemq;
 
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dropwizard.ConfiguredBundle;
 import io.dropwizard.lifecycle.Managed;
@@ -10,7 +13,14 @@ import org.apache.activemq.jms.pool.PooledConnectionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
 
 import static java.lang.String.format;
 
@@ -24,6 +34,21 @@ public class ActiveMQBundle implements ConfiguredBundle<ActiveMQConfigHolder>, M
     private Environment environment;
     private long shutdownWaitInSeconds;
     private Optional<Integer> defaultTimeToLiveInSeconds;
+    private ActiveMQSenderConfig defaultSenderConfig;
+    private MessageCodecs codecs;
+    // Senders keeping resources open between sends, closed when stopping
+    private final List<ActiveMQSender> sendersToClose = new CopyOnWriteArrayList<>();
+    private int warmUpConnections = 0;
+    private int warmUpSessionsPerConnection = 0;
+    // Only used when warming up
+    private ActiveMQWarmUpHealthCheck warmUpHealthCheck;
+    private final List<ActiveMQSenderImpl> sendersToWarmUp = new CopyOnWriteArrayList<>();
+    // Only used when probing the broker in the background
+    private ActiveMQBrokerProbe brokerProbe;
+    // Only used when polling destination statistics
+    private ActiveMQStatisticsPoller statisticsPoller;
+    // Only used when running an embedded broker
+    private ActiveMQEmbeddedBroker embeddedBroker;
     public static final ThreadLocal<String> correlationID = new ThreadLocal<>();
 
     public ActiveMQBundle() {
@@ -39,15 +64,29 @@ public class ActiveMQBundle implements ConfiguredBundle<ActiveMQConfigHolder>, M
     }
 
     public void init(ActiveMQConfig activeMQConfig, Environment environment) {
+        init(activeMQConfig, environment, environment.getObjectMapper(), true);
+    }
+
+    // manageLifecycle is false when someone else (ActiveMQMultiBundle) calls start() and stop()
+    void init(ActiveMQConfig activeMQConfig, Environment environment, ObjectMapper objectMapper, boolean manageLifecycle) {
         this.environment = environment;
         final String brokerUrl = activeMQConfig.brokerUrl;
         final int configuredTTL = activeMQConfig.timeToLiveInSeconds;
         final Optional<String> username = Optional.ofNullable(activeMQConfig.brokerUsername);
         final Optional<String> password = Optional.ofNullable(activeMQConfig.brokerPassword);
         defaultTimeToLiveInSeconds = Optional.ofNullable(configuredTTL > 0 ? configuredTTL : null);
+        defaultSenderConfig = Optional.ofNullable(activeMQConfig.sender).orElseGet(ActiveMQSenderConfig::new);
 
         log.info("Setting up activeMq with brokerUrl {}", brokerUrl);
 
+        if (activeMQConfig.embeddedBroker != null) {
+            try {
+                embeddedBroker = new ActiveMQEmbeddedBroker(activeMQConfig.embeddedBroker);
+            } catch (Exception e) {
+                throw new RuntimeException("Error creating embedded broker", e);
+            }
+        }
+
         log.debug("All activeMQ config: " + activeMQConfig);
 
         realConnectionFactory = new ActiveMQConnectionFactory(brokerUrl);
@@ -56,22 +95,47 @@ public class ActiveMQBundle implements ConfiguredBundle<ActiveMQConfigHolder>, M
             realConnectionFactory.setUserName(username.get());
             realConnectionFactory.setPassword(password.get());
         }
-        connectionFactory = new PooledConnectionFactory();
-        connectionFactory.setConnectionFactory(realConnectionFactory);
+        final ActiveMQPooledConnectionFactory pooledConnectionFactory = new ActiveMQPooledConnectionFactory();
+        pooledConnectionFactory.setConnectionFactory(realConnectionFactory);
+        pooledConnectionFactory.registerMetrics(environment.metrics(), MetricRegistry.name(healthCheckName, "pool"));
+        connectionFactory = pooledConnectionFactory;
 
         configurePool(activeMQConfig.pool);
 
-        objectMapper = environment.getObjectMapper();
+        this.objectMapper = objectMapper;
+        codecs = new MessageCodecs(objectMapper);
 
-        environment.lifecycle().manage(this);
+        if (manageLifecycle) {
+            environment.lifecycle().manage(this);
+        }
 
         // Must use realConnectionFactory instead of (pooled) connectionFactory for the healthCheck
         // Is needs its own connection since it is both sending and receiving.
         // If using pool, then it might block since no one is available..
-        environment.healthChecks().register(healthCheckName,
-            new ActiveMQHealthCheck(realConnectionFactory, activeMQConfig.healthCheckMillisecondsToWait)
-        );
+        if (activeMQConfig.healthCheckIntervalMillis > 0) {
+            brokerProbe = new ActiveMQBrokerProbe(realConnectionFactory, activeMQConfig.healthCheckMillisecondsToWait,
+                    activeMQConfig.healthCheckIntervalMillis,
+                    environment.metrics().timer(MetricRegistry.name(healthCheckName, "probe", "latency")));
+            environment.healthChecks().register(healthCheckName, brokerProbe);
+        } else {
+            environment.healthChecks().register(healthCheckName,
+                new ActiveMQHealthCheck(realConnectionFactory, activeMQConfig.healthCheckMillisecondsToWait)
+            );
+        }
+        if (activeMQConfig.statistics != null) {
+            statisticsPoller = new ActiveMQStatisticsPoller(realConnectionFactory, activeMQConfig.statistics,
+                    environment.metrics(), MetricRegistry.name(healthCheckName, "statistics"));
+            environment.healthChecks().register(healthCheckName + "_statistics", statisticsPoller);
+        }
         this.shutdownWaitInSeconds = activeMQConfig.shutdownWaitInSeconds;
+
+        final ActiveMQPoolConfig poolConfig = activeMQConfig.pool;
+        if (poolConfig != null && poolConfig.warmUpConnections != null && poolConfig.warmUpConnections > 0) {
+            warmUpConnections = poolConfig.warmUpConnections;
+            warmUpSessionsPerConnection = Optional.ofNullable(poolConfig.warmUpSessionsPerConnection).orElse(1);
+            warmUpHealthCheck = new ActiveMQWarmUpHealthCheck(this::warmUp);
+            environment.healthChecks().register(healthCheckName + "_warmUp", warmUpHealthCheck);
+        }
     }
 
     private void configurePool(ActiveMQPoolConfig poolConfig) {
@@ -116,14 +180,84 @@ public class ActiveMQBundle implements ConfiguredBundle<ActiveMQConfigHolder>, M
 
     @Override
     public void start() {
+        if (embeddedBroker != null) {
+            try {
+                embeddedBroker.start();
+            } catch (Exception e) {
+                throw new RuntimeException("Error starting embedded broker", e);
+            }
+        }
         log.info("Starting activeMQ client");
         connectionFactory.start();
+        if (brokerProbe != null) {
+            brokerProbe.start();
+        }
+        if (statisticsPoller != null) {
+            statisticsPoller.start();
+        }
+        if (warmUpHealthCheck != null) {
+            try {
+                warmUpHealthCheck.warmUp();
+            } catch (Exception e) {
+                log.warn("Error warming up activeMQ client - trying again when the health check runs", e);
+            }
+        }
+    }
+
+    // Opens the pooled connections and sessions, and creates a producer on each session.
+    // Closing them returns them to the pool, where they stay open
+    private void warmUp() throws JMSException {
+        final long start = System.currentTimeMillis();
+        final int sessionsPerConnection = Math.min(warmUpSessionsPerConnection, connectionFactory.getMaximumActiveSessionPerConnection());
+        final List<Connection> connections = new ArrayList<>();
+        final List<Session> sessions = new ArrayList<>();
+        try {
+            // The pool creates a new connection each time until it has maxConnections
+            for (int i = 0; i < Math.min(warmUpConnections, connectionFactory.getMaxConnections()); i++) {
+                final Connection connection = connectionFactory.createConnection();
+                connections.add(connection);
+                for (int s = 0; s < sessionsPerConnection; s++) {
+                    final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                    sessions.add(session);
+                    // With anonymous producers (the default), the session keeps its producer open
+                    session.createProducer(null).close();
+                }
+            }
+        } catch (JMSException e) {
+            // Else the pool might hand out the same broken connections when warming up is retried.
+            // We are not warm yet, so this should not affect much traffic
+            connectionFactory.clear();
+            throw e;
+        } finally {
+            sessions.forEach((session) -> ActiveMQUtils.silent(() -> session.close()));
+            connections.forEach((connection) -> ActiveMQUtils.silent(() -> connection.close()));
+        }
+
+        for (ActiveMQSenderImpl sender : sendersToWarmUp) {
+            sender.warmUp();
+        }
+        log.info("Warmed up {} connections with {} sessions each, and {} senders in {} ms",
+                connections.size(), sessionsPerConnection, sendersToWarmUp.size(), System.currentTimeMillis() - start);
     }
 
     @Override
     public void stop() {
         log.info("Stopping activeMQ client");
+        if (brokerProbe != null) {
+            brokerProbe.stop();
+        }
+        if (statisticsPoller != null) {
+            statisticsPoller.stop();
+        }
+        sendersToClose.forEach(ActiveMQSender::close);
         connectionFactory.stop();
+        if (embeddedBroker != null) {
+            try {
+                embeddedBroker.stop();
+            } catch (Exception e) {
+                log.error("Error stopping embedded broker", e);
+            }
+        }
     }
 
     public ActiveMQSender createSender(String destination, boolean persistent) {
@@ -131,35 +265,62 @@ public class ActiveMQBundle implements ConfiguredBundle<ActiveMQConfigHolder>, M
     }
 
     public ActiveMQSender createSender(String destination, boolean persistent, Optional<Integer> timeToLiveInSeconds) {
-        return new ActiveMQSenderImpl(connectionFactory, objectMapper, destination, timeToLiveInSeconds, persistent);
+        return createSender(destination, persistent, timeToLiveInSeconds, defaultSenderConfig);
+    }
+
+    public ActiveMQSender createSender(String destination, boolean persistent, Optional<Integer> timeToLiveInSeconds,
+                                      ActiveMQSenderConfig senderConfig) {
+        final ActiveMQSenderImpl sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destination, timeToLiveInSeconds,
+                persistent, senderConfig, codecs);
+        sender.registerMetrics(environment.metrics(), MetricRegistry.name(healthCheckName, "sender", destination));
+        if (statisticsPoller != null) {
+            statisticsPoller.addDestination(destination);
+        }
+        if (senderConfig.cacheProducers || senderConfig.groupCommit) {
+            sendersToClose.add(sender);
+        }
+        if (warmUpHealthCheck != null && !warmUpHealthCheck.isWarm()) {
+            sendersToWarmUp.add(sender);
+        }
+        return sender;
+    }
+
+    // Makes the codec available to senders and receivers created after this.
+    // Replaces any codec with the same name or contentType
+    public void registerCodec(MessageCodec codec) {
+        codecs.register(codec);
     }
 
     // This must be used during run-phase
     public <T> void registerReceiver(String destination, ActiveMQReceiver<T> receiver, Class<? extends T> clazz,
                                      final boolean ackMessageOnException) {
+        registerReceiver(destination, receiver, clazz, loggingExceptionHandler(ackMessageOnException));
+    }
 
-        ActiveMQReceiverHandler<T> handler = new ActiveMQReceiverHandler<>(
-                destination,
-                realConnectionFactory,
-                receiver,
-                clazz,
-                objectMapper,
-                (message, exception) -> {
-                    if (ackMessageOnException) {
-                        log.error("Error processing received message - acknowledging it anyway", exception);
-                        return true;
-                    } else {
-                        log.error("Error processing received message - NOT acknowledging it", exception);
-                        return false;
-                    }
-                },
-                shutdownWaitInSeconds
-        );
+    // This must be used during run-phase
+    // Use this one to receive generic types, like: new TypeReference<List<SomeObject>>() {}
+    public <T> void registerReceiver(String destination, ActiveMQReceiver<T> receiver, TypeReference<T> typeReference,
+                                     final boolean ackMessageOnException) {
+        registerReceiver(destination, receiver, typeReference, loggingExceptionHandler(ackMessageOnException));
+    }
 
-        internalRegisterReceiver(destination, handler);
+    private ActiveMQExceptionHandler loggingExceptionHandler(final boolean ackMessageOnException) {
+        return (message, exception) -> {
+            if (ackMessageOnException) {
+                log.error("Error processing received message - acknowledging it anyway", exception);
+                return true;
+            } else {
+                log.error("Error processing received message - NOT acknowledging it", exception);
+                return false;
+            }
+        };
     }
 
     private <T> void internalRegisterReceiver(String destination, ActiveMQReceiverHandler<T> handler) {
+        handler.registerMetrics(environment.metrics(), MetricRegistry.name(healthCheckName, "receiver", destination));
+        if (statisticsPoller != null) {
+            statisticsPoller.addDestination(destination);
+        }
         environment.lifecycle().manage(handler);
         environment.healthChecks().register("ActiveMQ receiver for " + destination, handler.getHealthCheck());
     }
@@ -167,15 +328,94 @@ public class ActiveMQBundle implements ConfiguredBundle<ActiveMQConfigHolder>, M
     // This must be used during run-phase
     public <T> void registerReceiver(String destination, ActiveMQReceiver<T> receiver, Class<? extends T> clazz,
                                      ActiveMQBaseExceptionHandler exceptionHandler) {
+        registerReceiver(destination, receiver, clazz, exceptionHandler, new ActiveMQReceiverConfig());
+    }
+
+    // This must be used during run-phase
+    public <T> void registerReceiver(String destination, ActiveMQReceiver<T> receiver, Class<? extends T> clazz,
+                                     ActiveMQBaseExceptionHandler exceptionHandler, ActiveMQReceiverConfig receiverConfig) {
+        internalRegisterReceiver(destination, receiver, objectMapper.constructType(clazz), exceptionHandler, receiverConfig);
+    }
+
+    // This must be used during run-phase
+    // Use this one to receive generic types, like: new TypeReference<List<SomeObject>>() {}
+    public <T> void registerReceiver(String destination, ActiveMQReceiver<T> receiver, TypeReference<T> typeReference,
+                                     ActiveMQBaseExceptionHandler exceptionHandler) {
+        registerReceiver(destination, receiver, typeReference, exceptionHandler, new ActiveMQReceiverConfig());
+    }
+
+    // This must be used during run-phase
+    public <T> void registerReceiver(String destination, ActiveMQReceiver<T> receiver, TypeReference<T> typeReference,
+                                     ActiveMQBaseExceptionHandler exceptionHandler, ActiveMQReceiverConfig receiverConfig) {
+        internalRegisterReceiver(destination, receiver, objectMapper.getTypeFactory().constructType(typeReference),
+                exceptionHandler, receiverConfig);
+    }
+
+    private <T> void internalRegisterReceiver(String destination, ActiveMQReceiver<T> receiver, JavaType receiverType,
+                                              ActiveMQBaseExceptionHandler exceptionHandler, ActiveMQReceiverConfig receiverConfig) {
 
         ActiveMQReceiverHandler<T> handler = new ActiveMQReceiverHandler<>(
                 destination,
                 realConnectionFactory,
                 receiver,
-                clazz,
+                receiverType,
+                objectMapper,
+                exceptionHandler,
+                shutdownWaitInSeconds,
+                receiverConfig,
+                codecs);
+
+        internalRegisterReceiver(destination, handler);
+    }
+
+    // This must be used during run-phase
+    public <T> void registerBatchReceiver(String destination, ActiveMQBatchReceiver<T> batchReceiver, Class<? extends T> clazz,
+                                          ActiveMQBaseExceptionHandler exceptionHandler) {
+        registerBatchReceiver(destination, batchReceiver, clazz, exceptionHandler, new ActiveMQReceiverConfig());
+    }
+
+    // This must be used during run-phase
+    public <T> void registerBatchReceiver(String destination, ActiveMQBatchReceiver<T> batchReceiver, Class<? extends T> clazz,
+                                          ActiveMQBaseExceptionHandler exceptionHandler, ActiveMQReceiverConfig receiverConfig) {
+
+        ActiveMQBatchReceiverHandler<T> handler = new ActiveMQBatchReceiverHandler<>(
+                destination,
+                realConnectionFactory,
+                batchReceiver,
+                objectMapper.constructType(clazz),
+                objectMapper,
+                exceptionHandler,
+                shutdownWaitInSeconds,
+                receiverConfig,
+                codecs);
+
+        internalRegisterReceiver(destination, handler);
+    }
+
+    // This must be used during run-phase
+    // Messages with the same JMSXGroupID are processed in order, different groups in parallel
+    public <T> void registerOrderedReceiver(String destination, ActiveMQReceiver<T> receiver, Class<? extends T> clazz,
+                                            ActiveMQBaseExceptionHandler exceptionHandler, ActiveMQReceiverConfig receiverConfig) {
+        registerOrderedReceiver(destination, receiver, clazz, null, exceptionHandler, receiverConfig);
+    }
+
+    // This must be used during run-phase
+    // Messages with the same key are processed in order, different keys in parallel
+    public <T> void registerOrderedReceiver(String destination, ActiveMQReceiver<T> receiver, Class<? extends T> clazz,
+                                            Function<? super T, ?> keyExtractor,
+                                            ActiveMQBaseExceptionHandler exceptionHandler, ActiveMQReceiverConfig receiverConfig) {
+
+        ActiveMQOrderedReceiverHandler<T> handler = new ActiveMQOrderedReceiverHandler<>(
+                destination,
+                realConnectionFactory,
+                receiver,
+                objectMapper.constructType(clazz),
+                keyExtractor,
                 objectMapper,
                 exceptionHandler,
-                shutdownWaitInSeconds);
+                shutdownWaitInSeconds,
+                receiverConfig,
+                codecs);
 
         internalRegisterReceiver(destination, handler);
     }
@@ -185,4 +425,9 @@ public class ActiveMQBundle implements ConfiguredBundle<ActiveMQConfigHolder>, M
                                      ActiveMQExceptionHandler exceptionHandler) {
         registerReceiver(destination, receiver, clazz, (ActiveMQBaseExceptionHandler) exceptionHandler);
     }
+
+    // The background broker probe, or null when healthCheckIntervalMillis is 0
+    ActiveMQBrokerProbe getBrokerProbe() {
+        return brokerProbe;
+    }
 }
@@ -25,6 +25,11 @@ public class ActiveMQConfig {
     @JsonProperty
     public long healthCheckMillisecondsToWait = 2000; // 2 seconds
 
+    // Probe the broker in the background this often, and let the health check return the last result.
+    // 0 means probing the broker (with a new connection) each time the health check runs
+    @JsonProperty
+    public long healthCheckIntervalMillis = 5000;
+
     @JsonProperty
     public int shutdownWaitInSeconds = 20;
 
@@ -39,17 +44,36 @@ public class ActiveMQConfig {
     @Valid
     public ActiveMQPoolConfig pool;
 
+    // Default options for senders created by the bundle
+    @JsonProperty
+    @Valid
+    public ActiveMQSenderConfig sender = new ActiveMQSenderConfig();
+
+    // Poll queue size, consumer count etc. of the destinations used by the bundle. Not set means no polling
+    @JsonProperty
+    @Valid
+    public ActiveMQStatisticsConfig statistics;
+
+    // Start a broker inside the application. Not set means using an external broker
+    @JsonProperty
+    @Valid
+    public ActiveMQEmbeddedBrokerConfig embeddedBroker;
+
     @Override
     public String toString() {
         return "ActiveMQConfig{" +
                 "brokerUrl='" + brokerUrl + '\'' +
                 ", healthCheckMillisecondsToWait=" + healthCheckMillisecondsToWait +
+                ", healthCheckIntervalMillis=" + healthCheckIntervalMillis +
                 ", shutdownWaitInSeconds=" + shutdownWaitInSeconds +
                 ", timeToLiveInSeconds=" + timeToLiveInSeconds +
                 ", brokerUsername=" + brokerUsername +
                 ", brokerPassword=" + brokerPassword +
                 ", trustedPackages=" + trustedPackages.stream().collect(joining(", ")) +
                 ", pool=" + pool +
+                ", sender=" + sender +
+                ", statistics=" + statistics +
+                ", embeddedBroker=" + embeddedBroker +
                 '}';
     }
 }
@@ -0,0 +1,68 @@
+package com.kjetland.dropwizard.activemq;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * A BrokerService started and stopped by the ActiveMQBundle, before its clients are started and after they are stopped.
+ * Kept in its own class, so that activemq-broker only has to be on the classpath when using it.
+ */
+class ActiveMQEmbeddedBroker {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final BrokerService brokerService;
+
+    ActiveMQEmbeddedBroker(ActiveMQEmbeddedBrokerConfig config) throws Exception {
+        brokerService = new BrokerService();
+        brokerService.setBrokerName(config.brokerName);
+        brokerService.setUseJmx(config.useJmx);
+        brokerService.setPersistent(config.persistent);
+        // Do not let the broker stop itself when the JVM is shutting down, the bundle stops it after its clients
+        brokerService.setUseShutdownHook(false);
+        brokerService.setDataDirectory(config.dataDirectory);
+
+        if (config.persistent) {
+            final KahaDBPersistenceAdapter kahaDB = new KahaDBPersistenceAdapter();
+            kahaDB.setDirectory(new File(config.dataDirectory));
+            if (config.journalMaxFileLength != null) {
+                kahaDB.setJournalMaxFileLength(config.journalMaxFileLength);
+            }
+            if (config.enableJournalDiskSyncs != null) {
+                // setEnableJournalDiskSyncs is deprecated
+                kahaDB.setJournalDiskSyncStrategy(config.enableJournalDiskSyncs ? "always" : "never");
+            }
+            if (config.indexWriteBatchSize != null) {
+                kahaDB.setIndexWriteBatchSize(config.indexWriteBatchSize);
+            }
+            brokerService.setPersistenceAdapter(kahaDB);
+        }
+
+        if (config.memoryLimitBytes != null) {
+            brokerService.getSystemUsage().getMemoryUsage().setLimit(config.memoryLimitBytes);
+        }
+
+        for (String transportConnector : config.transportConnectors) {
+            brokerService.addConnector(transportConnector);
+        }
+    }
+
+    void start() throws Exception {
+        log.info("Starting embedded broker {}", brokerService.getBrokerName());
+        brokerService.start();
+        brokerService.waitUntilStarted();
+    }
+
+    void stop() throws Exception {
+        log.info("Stopping embedded broker {}", brokerService.getBrokerName());
+        brokerService.stop();
+        brokerService.waitUntilStopped();
+    }
+
+    BrokerService getBrokerService() {
+        return brokerService;
+    }
+}
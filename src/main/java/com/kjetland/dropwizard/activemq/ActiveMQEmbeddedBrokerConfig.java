@@ -0,0 +1,60 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Starts a broker inside the application. Requires activemq-broker (and activemq-kahadb-store when persistent)
+public class ActiveMQEmbeddedBrokerConfig {
+
+    // Clients in the same JVM connect using brokerUrl: vm://<brokerName>?create=false
+    @JsonProperty
+    public String brokerName = "embedded";
+
+    // Store persistent messages in KahaDB in dataDirectory. When false, all messages are kept in memory only
+    @JsonProperty
+    public boolean persistent = false;
+
+    @JsonProperty
+    public String dataDirectory = "activemq-data";
+
+    // Only used when persistent: Size of each KahaDB journal file
+    @JsonProperty
+    public Integer journalMaxFileLength;
+
+    // Only used when persistent: Sync the journal to disk on every write. Turning it off is faster,
+    // but messages might be lost if the machine (not just the application) crashes
+    @JsonProperty
+    public Boolean enableJournalDiskSyncs;
+
+    // Only used when persistent: Max number of index pages written in one batch
+    @JsonProperty
+    public Integer indexWriteBatchSize;
+
+    // Max memory used for messages by the broker. Not set means the ActiveMQ default
+    @JsonProperty
+    public Long memoryLimitBytes;
+
+    // Extra connectors for clients in other processes, like tcp://0.0.0.0:61616
+    @JsonProperty
+    public List<String> transportConnectors = new ArrayList<>();
+
+    @JsonProperty
+    public boolean useJmx = false;
+
+    @Override
+    public String toString() {
+        return "ActiveMQEmbeddedBrokerConfig{" +
+                "brokerName='" + brokerName + '\'' +
+                ", persistent=" + persistent +
+                ", dataDirectory='" + dataDirectory + '\'' +
+                ", journalMaxFileLength=" + journalMaxFileLength +
+                ", enableJournalDiskSyncs=" + enableJournalDiskSyncs +
+                ", indexWriteBatchSize=" + indexWriteBatchSize +
+                ", memoryLimitBytes=" + memoryLimitBytes +
+                ", transportConnectors=" + transportConnectors +
+                ", useJmx=" + useJmx +
+                '}';
+    }
+}
@@ -0,0 +1,243 @@
+package com.kjetland.dropwizard.activemq;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets many threads share transactions when sending to the same destination.
+ *
+ * The calling threads put their messages in a queue and wait, while one flusher-thread sends up to
+ * groupCommitMaxBatchSize of them in a transacted session and commits once. A batch is sent when it is full,
+ * or groupCommitLingerMillis after its first message was queued. The callers are released when their batch
+ * is committed (or has failed).
+ *
+ * If creating a single message fails, only that caller gets the exception. If sending or committing fails,
+ * all the callers in the batch get it, and none of their messages are sent.
+ *
+ * A caller that is interrupted, or gives up waiting after groupCommitTimeoutMillis, gets an exception. Its message is
+ * then skipped by the flusher, unless the flusher has already started sending it - in that case an interrupted caller
+ * keeps waiting for the commit, so that it is not told that the send failed when it did not.
+ */
+class ActiveMQGroupCommitter {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final String destination;
+    private final ConnectionFactory connectionFactory;
+    private final JMSFunction<Session, MessageProducer> producerCreator;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final long timeoutMillis;
+    private final BlockingQueue<PendingMessage> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean closed = false;
+
+    ActiveMQGroupCommitter(String destination, ConnectionFactory connectionFactory,
+                           JMSFunction<Session, MessageProducer> producerCreator, ActiveMQSenderConfig senderConfig) {
+        if (senderConfig.groupCommitMaxBatchSize < 1) {
+            throw new IllegalArgumentException("groupCommitMaxBatchSize must be at least 1");
+        }
+        this.destination = destination;
+        this.connectionFactory = connectionFactory;
+        this.producerCreator = producerCreator;
+        this.maxBatchSize = senderConfig.groupCommitMaxBatchSize;
+        this.lingerMillis = senderConfig.groupCommitLingerMillis;
+        this.timeoutMillis = senderConfig.groupCommitTimeoutMillis;
+
+        flusher = new Thread(this::run, "activemq-group-commit-" + destination);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Blocks until the message is committed, or for max timeoutMillis.
+    // messageCreator is called by the flusher-thread, so it must not use anything the caller reuses after we return
+    void send(JMSFunction<Session, Message> messageCreator) throws JMSException {
+        if (closed) {
+            throw new IllegalStateException("Sender for " + destination + " is closed");
+        }
+        final PendingMessage pendingMessage = new PendingMessage(messageCreator);
+        queue.add(pendingMessage);
+        // Might have been closed after the flusher did empty the queue
+        if (closed) {
+            failRemaining();
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    pendingMessage.committed.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    if (pendingMessage.cancel()) {
+                        throw new RuntimeException("Interrupted while waiting for commit - the message was not sent", e);
+                    }
+                    // The flusher is sending it, so we wait for the result
+                } catch (TimeoutException e) {
+                    if (pendingMessage.cancel()) {
+                        throw new RuntimeException("Timed out waiting for commit after " + timeoutMillis
+                                + " ms - the message was not sent", e);
+                    }
+                    throw new RuntimeException("Timed out waiting for commit after " + timeoutMillis
+                            + " ms - the message might still be sent", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof JMSException) {
+                        throw (JMSException) e.getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Messages already queued are sent before the flusher stops.
+    // The flusher is not interrupted, since that could make sending the last batch fail
+    void close() {
+        closed = true;
+        ActiveMQUtils.silent(() -> flusher.join(TimeUnit.SECONDS.toMillis(10)));
+        failRemaining();
+    }
+
+    private void run() {
+        final List<PendingMessage> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                collectBatch(batch);
+                if (!batch.isEmpty()) {
+                    sendBatch(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("Group commit flusher for {} was interrupted", destination);
+            batch.forEach((pendingMessage) -> pendingMessage.committed.completeExceptionally(e));
+            closed = true;
+            failRemaining();
+        }
+    }
+
+    private void collectBatch(List<PendingMessage> batch) throws InterruptedException {
+        // Wakes up now and then to see if we're closed
+        final PendingMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        while (batch.size() < maxBatchSize) {
+            // Take what's already there without waiting
+            if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                continue;
+            }
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            final PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void sendBatch(List<PendingMessage> batch) {
+        final List<PendingMessage> sent = new ArrayList<>(batch.size());
+        try {
+            final Connection connection = connectionFactory.createConnection();
+            try {
+                final Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+                try {
+                    final MessageProducer messageProducer = producerCreator.apply(session);
+                    try {
+                        for (PendingMessage pendingMessage : batch) {
+                            if (!pendingMessage.claim()) {
+                                // The caller has given up
+                                continue;
+                            }
+                            final Message message;
+                            try {
+                                message = pendingMessage.messageCreator.apply(session);
+                            } catch (Exception e) {
+                                pendingMessage.committed.completeExceptionally(e);
+                                continue;
+                            }
+                            messageProducer.send(message);
+                            sent.add(pendingMessage);
+                        }
+                        session.commit();
+                    } catch (Exception e) {
+                        ActiveMQUtils.silent(() -> session.rollback());
+                        throw e;
+                    } finally {
+                        ActiveMQUtils.silent(() -> messageProducer.close());
+                    }
+                } finally {
+                    ActiveMQUtils.silent(() -> session.close());
+                }
+            } finally {
+                ActiveMQUtils.silent(() -> connection.close());
+            }
+        } catch (Exception e) {
+            log.warn("Error sending batch of {} messages to {}", batch.size(), destination);
+            batch.forEach((pendingMessage) -> pendingMessage.committed.completeExceptionally(e));
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Committed {} messages to {}", sent.size(), destination);
+        }
+        sent.forEach((pendingMessage) -> pendingMessage.committed.complete(null));
+    }
+
+    private void failRemaining() {
+        PendingMessage pendingMessage;
+        while ((pendingMessage = queue.poll()) != null) {
+            pendingMessage.committed.completeExceptionally(new IllegalStateException("Sender for " + destination + " is closed"));
+        }
+    }
+
+    private static class PendingMessage {
+        final JMSFunction<Session, Message> messageCreator;
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+        // Set by the flusher when it starts sending the message, or by the caller when giving up - whoever comes first
+        private final AtomicBoolean taken = new AtomicBoolean(false);
+
+        PendingMessage(JMSFunction<Session, Message> messageCreator) {
+            this.messageCreator = messageCreator;
+        }
+
+        // Returns false if the caller has given up
+        boolean claim() {
+            return taken.compareAndSet(false, true);
+        }
+
+        // Returns false if the flusher has started sending the message
+        boolean cancel() {
+            return taken.compareAndSet(false, true);
+        }
+    }
+}
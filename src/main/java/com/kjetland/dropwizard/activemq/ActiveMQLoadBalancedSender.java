@@ -0,0 +1,279 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.health.HealthCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageFormatException;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Spreads the messages over senders for the same destination on different brokers.
+ *
+ * A broker is marked as unhealthy for unhealthyRetryMillis when sending to it fails with a JMSException (or times out),
+ * and the message is sent to the next healthy broker instead. Other errors, like an object that cannot be serialized,
+ * are thrown right away without touching the brokers' health. A broker is also unhealthy while its health check
+ * (the background broker probe, if any) is failing. When all brokers are unhealthy, all of them are tried.
+ * Note that a message might end up on two brokers if sending failed after the first broker had received it.
+ *
+ * sendAsync() is not retried on another broker, but a failure still marks the broker as unhealthy.
+ *
+ * LEAST_LATENCY uses the power of two choices: it picks two random healthy brokers and sends to the one with the
+ * lowest average send time multiplied by its number of sends in progress. The average of a broker that is not used
+ * decays, so that a broker that was slow once is tried again later.
+ */
+public class ActiveMQLoadBalancedSender implements ActiveMQSender {
+
+    // Weight of the latest send time in the average
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final List<Broker> brokers = new ArrayList<>();
+    private final LoadBalancingStrategy strategy;
+    private final long unhealthyRetryNanos;
+    private final long latencyDecayNanos;
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+
+    // senders: sender per broker name
+    public ActiveMQLoadBalancedSender(Map<String, ActiveMQSender> senders, ActiveMQLoadBalancedSenderConfig config) {
+        this(senders, Collections.emptyMap(), config);
+    }
+
+    // healthChecks: Cheap health check per broker name, like ActiveMQBrokerProbe. Brokers without one are only
+    // considered unhealthy after sending to them has failed
+    public ActiveMQLoadBalancedSender(Map<String, ActiveMQSender> senders, Map<String, ? extends HealthCheck> healthChecks,
+                                      ActiveMQLoadBalancedSenderConfig config) {
+        if (senders.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one sender");
+        }
+        senders.forEach((brokerName, sender) -> {
+            final int weight = config.weights.getOrDefault(brokerName, 1);
+            if (weight < 1) {
+                throw new IllegalArgumentException("Weight of " + brokerName + " must be at least 1");
+            }
+            brokers.add(new Broker(brokerName, sender, weight, healthChecks.get(brokerName)));
+        });
+        this.strategy = config.strategy;
+        this.unhealthyRetryNanos = TimeUnit.MILLISECONDS.toNanos(config.unhealthyRetryMillis);
+        if (config.latencyDecayMillis < 1) {
+            throw new IllegalArgumentException("latencyDecayMillis must be at least 1");
+        }
+        this.latencyDecayNanos = TimeUnit.MILLISECONDS.toNanos(config.latencyDecayMillis);
+    }
+
+    @Override
+    public void sendJson(String json) {
+        sendWithFailover((sender) -> sender.sendJson(json));
+    }
+
+    @Override
+    public void send(Object object) {
+        sendWithFailover((sender) -> sender.send(object));
+    }
+
+    @Override
+    public void send(JMSFunction<Session, Message> messageCreator) {
+        sendWithFailover((sender) -> sender.send(messageCreator));
+    }
+
+    // All the objects are sent to the same broker
+    @Override
+    public void sendAll(Collection<?> objects) {
+        sendWithFailover((sender) -> sender.sendAll(objects));
+    }
+
+    @Override
+    public CompletionStage<Void> sendAsync(Object object) {
+        final Broker broker = pick(healthyBrokers(new ArrayList<>()));
+        final long start = System.nanoTime();
+        broker.inFlight.incrementAndGet();
+        final CompletionStage<Void> result;
+        try {
+            result = broker.sender.sendAsync(object);
+        } catch (RuntimeException e) {
+            broker.inFlight.decrementAndGet();
+            if (isBrokerFailure(e)) {
+                broker.failed(e);
+            }
+            throw e;
+        }
+        return result.whenComplete((ignored, e) -> {
+            broker.inFlight.decrementAndGet();
+            if (e == null) {
+                broker.succeeded(System.nanoTime() - start);
+            } else if (isBrokerFailure(e)) {
+                broker.failed(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        brokers.forEach((broker) -> broker.sender.close());
+    }
+
+    private void sendWithFailover(Consumer<ActiveMQSender> send) {
+        final List<Broker> tried = new ArrayList<>(brokers.size());
+        RuntimeException lastException = null;
+        List<Broker> candidates;
+        while (!(candidates = healthyBrokers(tried)).isEmpty()) {
+            final Broker broker = pick(candidates);
+            tried.add(broker);
+            final long start = System.nanoTime();
+            broker.inFlight.incrementAndGet();
+            try {
+                send.accept(broker.sender);
+                broker.succeeded(System.nanoTime() - start);
+                return;
+            } catch (RuntimeException e) {
+                if (!isBrokerFailure(e)) {
+                    throw e;
+                }
+                broker.failed(e);
+                lastException = e;
+            } finally {
+                broker.inFlight.decrementAndGet();
+            }
+        }
+        throw lastException;
+    }
+
+    // Only errors talking to the broker count - not e.g. an object that cannot be serialized, which would fail on
+    // every broker. ActiveMQSenderImpl wraps the JMSException in a RuntimeException
+    static boolean isBrokerFailure(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof MessageFormatException) {
+                return false;
+            }
+            if (t instanceof JMSException || t instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Healthy brokers not tried yet. All brokers not tried yet if none of them are healthy
+    private List<Broker> healthyBrokers(List<Broker> tried) {
+        final long now = System.nanoTime();
+        final List<Broker> healthy = new ArrayList<>(brokers.size());
+        final List<Broker> notTried = new ArrayList<>(brokers.size());
+        for (Broker broker : brokers) {
+            if (!tried.contains(broker)) {
+                notTried.add(broker);
+                if (broker.isHealthy(now)) {
+                    healthy.add(broker);
+                }
+            }
+        }
+        return healthy.isEmpty() ? notTried : healthy;
+    }
+
+    private Broker pick(List<Broker> candidates) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        switch (strategy) {
+            case WEIGHTED:
+                return pickWeighted(candidates);
+            case LEAST_LATENCY:
+                return pickLeastLatency(candidates);
+            default:
+                return candidates.get(Math.floorMod(nextIndex.getAndIncrement(), candidates.size()));
+        }
+    }
+
+    // Power of two choices: Always picking the best broker would send everything to one broker, and its average
+    // would be the only one that is kept up to date
+    private Broker pickLeastLatency(List<Broker> candidates) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(candidates.size());
+        final int second = (first + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+        final long now = System.nanoTime();
+        final Broker a = candidates.get(first);
+        final Broker b = candidates.get(second);
+        return a.cost(now) <= b.cost(now) ? a : b;
+    }
+
+    // Smooth weighted round-robin: Spreads the sends to each broker evenly instead of sending them in bursts
+    private synchronized Broker pickWeighted(List<Broker> candidates) {
+        int totalWeight = 0;
+        Broker best = null;
+        for (Broker broker : candidates) {
+            broker.currentWeight += broker.weight;
+            totalWeight += broker.weight;
+            if (best == null || broker.currentWeight > best.currentWeight) {
+                best = broker;
+            }
+        }
+        best.currentWeight -= totalWeight;
+        return best;
+    }
+
+    private class Broker {
+        final String name;
+        final ActiveMQSender sender;
+        final int weight;
+        // Might be null
+        final HealthCheck healthCheck;
+        // Only used by pickWeighted
+        int currentWeight = 0;
+        volatile long unhealthyUntilNanos;
+        final AtomicBoolean unhealthy = new AtomicBoolean(false);
+        // Average send time. Starts at 0 so that all brokers get tried
+        final AtomicLong latencyNanos = new AtomicLong(0);
+        volatile long lastSucceededNanos = System.nanoTime();
+        final AtomicInteger inFlight = new AtomicInteger(0);
+
+        Broker(String name, ActiveMQSender sender, int weight, HealthCheck healthCheck) {
+            this.name = name;
+            this.sender = sender;
+            this.weight = weight;
+            this.healthCheck = healthCheck;
+        }
+
+        boolean isHealthy(long now) {
+            if (unhealthy.get() && now - unhealthyUntilNanos < 0) {
+                return false;
+            }
+            return healthCheck == null || healthCheck.execute().isHealthy();
+        }
+
+        // The average is halved for every latencyDecayNanos since the last successful send
+        double cost(long now) {
+            final double decay = Math.pow(0.5, (double) (now - lastSucceededNanos) / latencyDecayNanos);
+            return latencyNanos.get() * decay * (inFlight.get() + 1);
+        }
+
+        void succeeded(long nanos) {
+            unhealthy.set(false);
+            // The first send time is used as it is, so that a broker tried only once is not mistaken for a fast one
+            latencyNanos.updateAndGet((average) -> average == 0 ? nanos : average + (long) ((nanos - average) * LATENCY_SMOOTHING));
+            lastSucceededNanos = System.nanoTime();
+        }
+
+        void failed(Throwable e) {
+            unhealthyUntilNanos = System.nanoTime() + unhealthyRetryNanos;
+            // Only the first failure gets the stack trace, so a broker that is down does not flood the log
+            if (unhealthy.compareAndSet(false, true)) {
+                log.warn("Sending to broker {} failed - skipping it for {} ms", name, TimeUnit.NANOSECONDS.toMillis(unhealthyRetryNanos), e);
+            } else {
+                log.warn("Sending to broker {} failed again - skipping it for {} ms: {}", name, TimeUnit.NANOSECONDS.toMillis(unhealthyRetryNanos), e.toString());
+            }
+        }
+    }
+}
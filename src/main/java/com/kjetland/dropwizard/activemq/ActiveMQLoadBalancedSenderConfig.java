@@ -0,0 +1,36 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ActiveMQLoadBalancedSenderConfig {
+
+    // ROUND_ROBIN, WEIGHTED or LEAST_LATENCY
+    @JsonProperty
+    public LoadBalancingStrategy strategy = LoadBalancingStrategy.ROUND_ROBIN;
+
+    // Only used by WEIGHTED: Weight per broker name. Brokers not listed get weight 1
+    @JsonProperty
+    public Map<String, Integer> weights = new HashMap<>();
+
+    // A broker is skipped this long after sending to it failed
+    @JsonProperty
+    public long unhealthyRetryMillis = 5000;
+
+    // Only used by LEAST_LATENCY: The average send time of a broker is halved for every latencyDecayMillis it
+    // has not been sent to, so that a broker that was slow is tried again
+    @JsonProperty
+    public long latencyDecayMillis = 1000;
+
+    @Override
+    public String toString() {
+        return "ActiveMQLoadBalancedSenderConfig{" +
+                "strategy=" + strategy +
+                ", weights=" + weights +
+                ", unhealthyRetryMillis=" + unhealthyRetryMillis +
+                ", latencyDecayMillis=" + latencyDecayMillis +
+                '}';
+    }
+}
@@ -1,22 +1,51 @@
 package com.kjetland.dropwizard.activemq;
 
-import com.google.common.collect.Maps;
+import com.codahale.metrics.health.HealthCheck;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dropwizard.ConfiguredBundle;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
-public class ActiveMQMultiBundle implements ConfiguredBundle<ActiveMQMultiConfigHolder> {
+/**
+ * Creates one ActiveMQBundle per configured broker when running. All of them use the same ObjectMapper.
+ *
+ * The bundles are started and stopped in parallel, so that a slow (or unavailable) broker
+ * does not delay the others.
+ */
+public class ActiveMQMultiBundle implements ConfiguredBundle<ActiveMQMultiConfigHolder>, Managed {
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
     private Map<String, ActiveMQBundle> activeMQBundleMap;
 
     public void run(ActiveMQMultiConfigHolder configuration, Environment environment) throws Exception {
+        final ObjectMapper objectMapper = environment.getObjectMapper();
+        final Map<String, ActiveMQBundle> bundles = new LinkedHashMap<>();
 
-        activeMQBundleMap = Maps.transformEntries(configuration.getActiveMQConnections(), (brokerName, activeMQConfig) -> {
+        configuration.getActiveMQConnections().forEach((brokerName, activeMQConfig) -> {
             ActiveMQBundle activeMQBundle = new ActiveMQBundle(brokerName);
-            activeMQBundle.init(activeMQConfig, environment);
-            return activeMQBundle;
+            activeMQBundle.init(activeMQConfig, environment, objectMapper, false);
+            bundles.put(brokerName, activeMQBundle);
         });
+
+        activeMQBundleMap = Collections.unmodifiableMap(bundles);
+        environment.lifecycle().manage(this);
     }
 
     @Override
@@ -24,6 +53,74 @@ public class ActiveMQMultiBundle implements ConfiguredBundle<ActiveMQMultiConfig
 
     }
 
+    @Override
+    public void start() throws Exception {
+        log.info("Starting {} activeMQ clients", activeMQBundleMap.size());
+        inParallel(ActiveMQBundle::start);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        inParallel(ActiveMQBundle::stop);
+    }
+
+    // Waits for all of them, and then throws the first exception, if any
+    private void inParallel(Consumer<ActiveMQBundle> action) throws Exception {
+        if (activeMQBundleMap.size() <= 1) {
+            activeMQBundleMap.values().forEach(action);
+            return;
+        }
+
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        final ExecutorService executor = Executors.newFixedThreadPool(activeMQBundleMap.size(),
+                (runnable) -> new Thread(runnable, "activemq-multi-bundle-" + threadCount.incrementAndGet()));
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (ActiveMQBundle activeMQBundle : activeMQBundleMap.values()) {
+                futures.add(executor.submit(() -> action.accept(activeMQBundle)));
+            }
+
+            Exception firstException = null;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (firstException == null) {
+                        firstException = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+            if (firstException != null) {
+                throw firstException;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Sends to the destination on all the brokers
+    public ActiveMQSender createLoadBalancedSender(String destination, boolean persistent,
+                                                   ActiveMQLoadBalancedSenderConfig loadBalancedSenderConfig) {
+        return createLoadBalancedSender(activeMQBundleMap.keySet(), destination, persistent, loadBalancedSenderConfig);
+    }
+
+    public ActiveMQSender createLoadBalancedSender(Collection<String> brokerNames, String destination, boolean persistent,
+                                                   ActiveMQLoadBalancedSenderConfig loadBalancedSenderConfig) {
+        final Map<String, ActiveMQSender> senders = new LinkedHashMap<>();
+        final Map<String, HealthCheck> brokerProbes = new HashMap<>();
+        for (String brokerName : brokerNames) {
+            final ActiveMQBundle activeMQBundle = activeMQBundleMap.get(brokerName);
+            if (activeMQBundle == null) {
+                throw new IllegalArgumentException("Unknown broker " + brokerName);
+            }
+            senders.put(brokerName, activeMQBundle.createSender(destination, persistent));
+            if (activeMQBundle.getBrokerProbe() != null) {
+                brokerProbes.put(brokerName, activeMQBundle.getBrokerProbe());
+            }
+        }
+        return new ActiveMQLoadBalancedSender(senders, brokerProbes, loadBalancedSenderConfig);
+    }
+
     public Map<String, ActiveMQBundle> getActiveMQBundleMap() {
         return activeMQBundleMap;
     }
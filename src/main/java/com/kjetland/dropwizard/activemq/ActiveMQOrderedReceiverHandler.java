@@ -0,0 +1,238 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.Timer;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import org.apache.activemq.ActiveMQMessageConsumer;
+import org.apache.activemq.ActiveMQSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Processes messages in parallel on a fixed number of worker-threads, while messages with the same key
+ * are always processed by the same worker - serially and in the order they were received.
+ *
+ * The key is the JMSXGroupID of the message, or the result of the keyExtractor if one is given.
+ * Messages without a key are spread over all workers.
+ *
+ * Each message is acknowledged individually when processed.
+ * If a message fails and the exceptionHandler returns false, the workers skip all messages dispatched
+ * after it, and when all in-flight messages are done, the unacknowledged ones are rolled back and redelivered in order.
+ */
+public class ActiveMQOrderedReceiverHandler<T> extends ActiveMQReceiverHandler<T> {
+
+    public static final String GROUP_ID_PROPERTY = "JMSXGroupID";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Function<? super T, ?> keyExtractor;
+    private final int workerCount;
+    private final Semaphore inFlight;
+    private final AtomicBoolean failed = new AtomicBoolean(false);
+    private final AtomicInteger roundRobin = new AtomicInteger(0);
+    private ExecutorService[] workers;
+
+    public ActiveMQOrderedReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQReceiver<T> receiver,
+            JavaType receiverType,
+            Function<? super T, ?> keyExtractor,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig) {
+        this(destination, connectionFactory, receiver, receiverType, keyExtractor, objectMapper, exceptionHandler,
+                shutdownWaitInSeconds, receiverConfig, new MessageCodecs(objectMapper));
+    }
+
+    public ActiveMQOrderedReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQReceiver<T> receiver,
+            JavaType receiverType,
+            Function<? super T, ?> keyExtractor,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig,
+            MessageCodecs codecs) {
+
+        super(destination, connectionFactory, receiver, receiverType, objectMapper, exceptionHandler, shutdownWaitInSeconds,
+                receiverConfig, codecs);
+
+        if (receiverConfig.useMessageListener || receiverConfig.maxConcurrentConsumers > 1) {
+            throw new IllegalArgumentException("Ordered receivers must use one polling consumer");
+        }
+        if (receiverConfig.isTransacted()) {
+            throw new IllegalArgumentException("Ordered receivers acknowledge each message and can not be transacted");
+        }
+        if (receiverConfig.maxMessagesInFlight < 1) {
+            throw new IllegalArgumentException("maxMessagesInFlight must be at least 1");
+        }
+        this.keyExtractor = keyExtractor;
+        this.workerCount = receiverConfig.orderedWorkerThreads > 0
+                ? receiverConfig.orderedWorkerThreads
+                : Runtime.getRuntime().availableProcessors();
+        this.inFlight = new Semaphore(receiverConfig.maxMessagesInFlight);
+    }
+
+    public ActiveMQOrderedReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQReceiver<T> receiver,
+            Class<? extends T> receiverType,
+            Function<? super T, ?> keyExtractor,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig) {
+        this(destination, connectionFactory, receiver, TypeFactory.defaultInstance().constructType(receiverType), keyExtractor,
+                objectMapper, exceptionHandler, shutdownWaitInSeconds, receiverConfig);
+    }
+
+    @Override
+    public void start() throws Exception {
+        workers = new ExecutorService[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            final String name = "Ordered receiver " + destination + "-" + i;
+            workers[i] = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
+        }
+        super.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        // The consumer waits for in-flight messages before it closes
+        super.stop();
+        // Not set if we were never started
+        if (workers != null) {
+            for (ExecutorService worker : workers) {
+                worker.shutdown();
+            }
+        }
+    }
+
+    @Override
+    protected Session createSession(Connection connection) throws JMSException {
+        // Messages are processed out of order across keys, so each one must be acknowledged on its own
+        return connection.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+    }
+
+    @Override
+    protected void onMessageReceived(ActiveMQMessageConsumer messageConsumer, Message message) throws JMSException {
+        if (failed.get()) {
+            // This message is rolled back too - it will be redelivered after the failed one
+            rollbackWhenIdle(messageConsumer);
+            return;
+        }
+
+        String json = null;
+        final T object;
+        final Object key;
+        try {
+            json = getText(message);
+            object = decode(message, json);
+            key = keyExtractor != null ? keyExtractor.apply(object) : message.getStringProperty(GROUP_ID_PROPERTY);
+        } catch (Exception e) {
+            handleException(message, json, e);
+            return;
+        }
+
+        inFlight.acquireUninterruptibly();
+        final String text = json;
+        workers[workerIndex(key)].execute(() -> {
+            try {
+                process(message, text, object);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    @Override
+    protected void onReceiveTimeout(ActiveMQMessageConsumer messageConsumer) {
+        if (failed.get()) {
+            rollbackWhenIdle(messageConsumer);
+        }
+    }
+
+    @Override
+    protected void onReceiveLoopEnded(ActiveMQMessageConsumer messageConsumer) {
+        // Let in-flight messages be acknowledged before the consumer is closed
+        awaitNoneInFlight();
+        failed.set(false);
+    }
+
+    private int workerIndex(Object key) {
+        if (key == null) {
+            return (roundRobin.getAndIncrement() & Integer.MAX_VALUE) % workerCount;
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % workerCount;
+    }
+
+    private void process(Message message, String json, T object) {
+        if (failed.get()) {
+            // Skip it, it will be rolled back
+            return;
+        }
+        try {
+            // keep track of the correlationID of the message in the scope of process()
+            ActiveMQBundle.correlationID.set(message.getJMSCorrelationID());
+            final Timer.Context processTime = metrics.process.time();
+            try {
+                receiver.receive(object);
+            } finally {
+                processTime.stop();
+            }
+            message.acknowledge();
+            metrics.acknowledged.mark();
+        } catch (Exception e) {
+            handleException(message, json, e);
+        } finally {
+            ActiveMQBundle.correlationID.remove();
+        }
+    }
+
+    private void handleException(Message message, String json, Exception e) {
+        if (onException(message, json, e)) {
+            acknowledge(message);
+            metrics.acknowledged.mark();
+        } else {
+            failed.set(true);
+        }
+    }
+
+    private void rollbackWhenIdle(ActiveMQMessageConsumer messageConsumer) {
+        awaitNoneInFlight();
+        log.debug("Rolling back unacknowledged messages for {}", destination);
+        failed.set(false);
+        rollback(messageConsumer);
+    }
+
+    private void awaitNoneInFlight() {
+        final int permits = receiverConfig.maxMessagesInFlight;
+        try {
+            if (inFlight.tryAcquire(permits, shutdownWaitInSeconds, TimeUnit.SECONDS)) {
+                inFlight.release(permits);
+            } else {
+                log.warn("Gave up waiting for in-flight messages for {}", destination);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
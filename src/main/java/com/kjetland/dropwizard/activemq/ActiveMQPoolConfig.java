@@ -25,6 +25,15 @@ public class ActiveMQPoolConfig {
     @JsonProperty
     public Long timeBetweenExpirationCheckMillis;
 
+    // Open this many pooled connections when starting, so that the first messages do not have to wait for them.
+    // Senders created before starting also create their producers
+    @JsonProperty
+    public Integer warmUpConnections;
+
+    // Sessions (with producers) opened on each connection when warming up
+    @JsonProperty
+    public Integer warmUpSessionsPerConnection;
+
     @Override
     public String toString() {
         return "ActiveMQPoolConfig{" +
@@ -35,6 +44,8 @@ public class ActiveMQPoolConfig {
                 ", expiryTimeoutMills=" + expiryTimeoutMills +
                 ", createConnectionOnStartup=" + createConnectionOnStartup +
                 ", timeBetweenExpirationCheckMillis=" + timeBetweenExpirationCheckMillis +
+                ", warmUpConnections=" + warmUpConnections +
+                ", warmUpSessionsPerConnection=" + warmUpSessionsPerConnection +
                 '}';
     }
 }
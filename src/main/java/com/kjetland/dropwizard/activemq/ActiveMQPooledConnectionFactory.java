@@ -0,0 +1,87 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.apache.activemq.jms.pool.ConnectionPool;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Session;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * A PooledConnectionFactory keeping track of its pooled connections, so that we can report how their sessions are used.
+ *
+ * The gauges (named name.connections, name.activeSessions, name.idleSessions and name.waitingForSession) are
+ * meant for sizing ActiveMQPoolConfig: If threads are often waiting for a session, maximumActiveSessionPerConnection
+ * or maxConnections is too low. Only threads that find all the sessions of their connection in use are counted as
+ * waiting, and they only wait when blockIfSessionPoolIsFull is on (the default).
+ */
+class ActiveMQPooledConnectionFactory extends PooledConnectionFactory {
+
+    private final Set<ConnectionPool> connectionPools = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger waitingForSession = new AtomicInteger(0);
+
+    @Override
+    protected ConnectionPool createConnectionPool(Connection connection) {
+        final ConnectionPool connectionPool = new ConnectionPool(connection) {
+            @Override
+            public Session createSession(boolean transacted, int ackMode) throws JMSException {
+                // Only count the threads that will block because all the sessions are in use
+                if (!isBlockIfSessionPoolIsFull() || getNumActiveSessions() < getMaximumActiveSessionPerConnection()) {
+                    return super.createSession(transacted, ackMode);
+                }
+                waitingForSession.incrementAndGet();
+                try {
+                    return super.createSession(transacted, ackMode);
+                } finally {
+                    waitingForSession.decrementAndGet();
+                }
+            }
+
+            @Override
+            public synchronized void close() {
+                super.close();
+                connectionPools.remove(this);
+            }
+        };
+        connectionPools.add(connectionPool);
+        return connectionPool;
+    }
+
+    // Sessions borrowed from the pool and not yet returned
+    int getNumActiveSessions() {
+        return sum(ConnectionPool::getNumActiveSessions);
+    }
+
+    // Sessions kept open in the pool, ready to be used
+    int getNumIdleSessions() {
+        return sum(ConnectionPool::getNumIdleSessions);
+    }
+
+    // Threads currently waiting for a session because the pool was full when they asked
+    int getNumWaitingForSession() {
+        return waitingForSession.get();
+    }
+
+    // Replaces gauges already registered under the same names, e.g. by a previous factory for the same broker
+    void registerMetrics(MetricRegistry metricRegistry, String name) {
+        registerGauge(metricRegistry, MetricRegistry.name(name, "connections"), this::getNumConnections);
+        registerGauge(metricRegistry, MetricRegistry.name(name, "activeSessions"), this::getNumActiveSessions);
+        registerGauge(metricRegistry, MetricRegistry.name(name, "idleSessions"), this::getNumIdleSessions);
+        registerGauge(metricRegistry, MetricRegistry.name(name, "waitingForSession"), this::getNumWaitingForSession);
+    }
+
+    private static void registerGauge(MetricRegistry metricRegistry, String name, Gauge<Integer> gauge) {
+        metricRegistry.remove(name);
+        metricRegistry.register(name, gauge);
+    }
+
+    private int sum(ToIntFunction<ConnectionPool> count) {
+        return connectionPools.stream().mapToInt(count).sum();
+    }
+}
@@ -0,0 +1,108 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ActiveMQReceiverConfig {
+
+    // Number of consumers (each with its own connection and session) started for the destination
+    @JsonProperty
+    public int concurrentConsumers = 1;
+
+    // Extra consumers are started when all running consumers are busy, up to this number
+    @JsonProperty
+    public int maxConcurrentConsumers = 1;
+
+    // An extra consumer is stopped again after this many receives in a row without getting a message
+    @JsonProperty
+    public int idleReceivesBeforeShrink = 25; // 25 * 400 mills = 10 seconds
+
+    // Let ActiveMQ push messages to a MessageListener instead of polling with a thread per consumer.
+    // Idle consumers will then not use any threads.
+    @JsonProperty
+    public boolean useMessageListener = false;
+
+    // Codec used to decode BytesMessages without a contentType-property. Messages with the property are
+    // decoded with the codec registered for that contentType
+    @JsonProperty
+    public String codec = MessageCodecs.JSON;
+
+    // Compressed messages decompressing to more than this many bytes are passed to the exception handler
+    // instead of the receiver, so a single message can not use up the memory
+    @JsonProperty
+    public int maxDecompressedSize = 64 * 1024 * 1024;
+
+    // Only used by batch receivers: Max number of messages passed to the receiver in one call
+    @JsonProperty
+    public int maxBatchSize = 100;
+
+    // Only used by batch receivers: Max time to wait for a batch to fill up after receiving its first message
+    @JsonProperty
+    public long maxBatchWaitMillis = 1000;
+
+    // Only used by ordered receivers: Number of worker-threads. 0 means one per available processor
+    @JsonProperty
+    public int orderedWorkerThreads = 0;
+
+    // Only used by ordered receivers: Max number of messages dispatched to the workers, but not yet processed
+    @JsonProperty
+    public int maxMessagesInFlight = 100;
+
+    // Use a transacted session and commit every transactedBatchSize messages instead of acknowledging each of them.
+    // 0 means not transacted. If a message fails, all uncommitted messages are rolled back and redelivered.
+    @JsonProperty
+    public int transactedBatchSize = 0;
+
+    // Commit at least this often when there are uncommitted messages
+    @JsonProperty
+    public long transactedBatchMillis = 1000;
+
+    // The health check of the receiver is unhealthy if a message was older than this (based on its JMSTimestamp,
+    // so the clocks must be in sync) when received, and we have not caught up since. 0 means not checked
+    @JsonProperty
+    public long maxMessageAgeMillis = 0;
+
+    // The health check of the receiver is unhealthy if a consumer has not been ready to receive
+    // the next message for this long, e.g. because it is stuck processing one. 0 means not checked
+    @JsonProperty
+    public long maxMillisSinceReceive = 0;
+
+    boolean isTransacted() {
+        return transactedBatchSize > 0;
+    }
+
+    void validate() {
+        if (concurrentConsumers < 1) {
+            throw new IllegalArgumentException("concurrentConsumers must be at least 1");
+        }
+        if (maxConcurrentConsumers < concurrentConsumers) {
+            throw new IllegalArgumentException("maxConcurrentConsumers (" + maxConcurrentConsumers
+                    + ") must be >= concurrentConsumers (" + concurrentConsumers + ")");
+        }
+        if (maxDecompressedSize < 1) {
+            throw new IllegalArgumentException("maxDecompressedSize must be at least 1");
+        }
+        if (isTransacted() && useMessageListener) {
+            throw new IllegalArgumentException("Transacted receivers can not use MessageListener");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ActiveMQReceiverConfig{" +
+                "concurrentConsumers=" + concurrentConsumers +
+                ", maxConcurrentConsumers=" + maxConcurrentConsumers +
+                ", idleReceivesBeforeShrink=" + idleReceivesBeforeShrink +
+                ", useMessageListener=" + useMessageListener +
+                ", codec='" + codec + '\'' +
+                ", maxDecompressedSize=" + maxDecompressedSize +
+                ", maxBatchSize=" + maxBatchSize +
+                ", maxBatchWaitMillis=" + maxBatchWaitMillis +
+                ", orderedWorkerThreads=" + orderedWorkerThreads +
+                ", maxMessagesInFlight=" + maxMessagesInFlight +
+                ", transactedBatchSize=" + transactedBatchSize +
+                ", transactedBatchMillis=" + transactedBatchMillis +
+                ", maxMessageAgeMillis=" + maxMessageAgeMillis +
+                ", maxMillisSinceReceive=" + maxMillisSinceReceive +
+                '}';
+    }
+}
@@ -1,13 +1,20 @@
 package com.kjetland.dropwizard.activemq;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.codahale.metrics.health.HealthCheck;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.kjetland.dropwizard.activemq.errors.JsonError;
 import io.dropwizard.lifecycle.Managed;
 import org.apache.activemq.ActiveMQMessageConsumer;
+import org.apache.activemq.command.ActiveMQBytesMessage;
 import org.apache.activemq.command.ActiveMQMapMessage;
 import org.apache.activemq.command.ActiveMQObjectMessage;
 import org.apache.activemq.jms.pool.PooledMessageConsumer;
+import org.apache.activemq.util.ByteSequence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,10 +22,20 @@ import javax.jms.*;
 import java.io.IOException;
 import java.lang.IllegalStateException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ActiveMQReceiverHandler<T> implements Managed, Runnable {
+public class ActiveMQReceiverHandler<T> implements Managed {
 
     static final Field pooledMessageConsumerDelegateField;
 
@@ -32,39 +49,117 @@ public class ActiveMQReceiverHandler<T> implements Managed, Runnable {
     }
 
     private static final long SLEEP_TIME_MILLS = 10000;
+    private static final long RECEIVE_TIMEOUT_MILLS = 400;
+
+    // Only used for timing the reconnects of listener-consumers and the housekeeping of all handlers.
+    // Anything that might block is handed over to connectExecutor, so one thread is enough.
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread t = new Thread(r, "ActiveMQ receiver scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Connects and closes listener-consumers. Connecting can block for a long time (e.g. failover:// retrying),
+    // so each one gets its own thread, which is only kept while there is something to connect.
+    private static final ExecutorService connectExecutor = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "ActiveMQ receiver connect");
+        t.setDaemon(true);
+        return t;
+    });
+
     private final Logger log = LoggerFactory.getLogger(getClass());
-    private final String destination;
+    protected final String destination;
     private final ConnectionFactory connectionFactory;
-    private final Class<? extends T> receiverType;
-    private final ActiveMQReceiver<T> receiver;
-    private final ObjectMapper objectMapper;
-    private final Thread thread;
-    private AtomicBoolean shouldStop = new AtomicBoolean(false);
-    private AtomicBoolean isReceiving = new AtomicBoolean(false);
-    private final ActiveMQBaseExceptionHandler exceptionHandler;
+    private final JavaType receiverType;
+    private final Class<?> receiverClass;
+    protected final ActiveMQReceiver<T> receiver;
+    // Resolved once for receiverType, so we do not have to look up the deserializer for every message
+    private final ObjectReader objectReader;
+    private final MessageCodecs codecs;
+    // Used for BytesMessages without a contentType-property
+    private final MessageCodec defaultCodec;
+    // Decoders for receiverType by contentType, created when receiving the first message with each contentType
+    private final Map<String, MessageDecoder<T>> decoders = new ConcurrentHashMap<>();
+    protected final ActiveMQReceiverConfig receiverConfig;
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    private final AtomicInteger consumerCounter = new AtomicInteger(0);
+    private final AtomicInteger busyConsumers = new AtomicInteger(0);
+    private ScheduledFuture<?> shrinkTask;
+    protected AtomicBoolean shouldStop = new AtomicBoolean(false);
+    private AtomicInteger receivingConsumers = new AtomicInteger(0);
+    protected final ActiveMQBaseExceptionHandler exceptionHandler;
     protected final DestinationCreator destinationCreator = new DestinationCreatorImpl();
     protected final long shutdownWaitInSeconds;
+    // Not registered anywhere until registerMetrics() is called
+    ActiveMQReceiverMetrics metrics;
+    // Age of the last received message (based on JMSTimestamp) when it was received, and when that was
+    private volatile long lastMessageAgeMillis = 0;
+    private volatile long lastMessageReceivedMillis = 0;
 
-    protected int errorsInARowCount = 0;
+    // Use this one to receive generic types like List<Event>: objectMapper.getTypeFactory().constructCollectionType(List.class, Event.class)
+    public ActiveMQReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQReceiver<T> receiver,
+            JavaType receiverType,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig) {
+        this(destination, connectionFactory, receiver, receiverType, objectMapper, exceptionHandler, shutdownWaitInSeconds,
+                receiverConfig, new MessageCodecs(objectMapper));
+    }
 
     public ActiveMQReceiverHandler(
             String destination,
             ConnectionFactory connectionFactory,
             ActiveMQReceiver<T> receiver,
-            Class<? extends T> receiverType,
+            JavaType receiverType,
             ObjectMapper objectMapper,
             ActiveMQBaseExceptionHandler exceptionHandler,
-            long shutdownWaitInSeconds) {
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig,
+            MessageCodecs codecs) {
+
+        receiverConfig.validate();
 
         this.destination = destination;
         this.connectionFactory = connectionFactory;
         this.receiver = receiver;
         this.receiverType = receiverType;
-        this.objectMapper = objectMapper;
+        this.receiverClass = receiverType.getRawClass();
+        // objectMapper is not needed when receiving strings
+        this.objectReader = objectMapper != null ? objectMapper.readerFor(receiverType) : null;
+        this.codecs = codecs;
+        this.defaultCodec = codecs.getByName(receiverConfig.codec);
         this.exceptionHandler = exceptionHandler;
         this.shutdownWaitInSeconds = shutdownWaitInSeconds;
+        this.receiverConfig = receiverConfig;
+        this.metrics = new ActiveMQReceiverMetrics(new MetricRegistry(), destination);
+    }
+
+    public ActiveMQReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQReceiver<T> receiver,
+            Class<? extends T> receiverType,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds,
+            ActiveMQReceiverConfig receiverConfig) {
+        this(destination, connectionFactory, receiver, TypeFactory.defaultInstance().constructType(receiverType), objectMapper,
+                exceptionHandler, shutdownWaitInSeconds, receiverConfig);
+    }
 
-        this.thread = new Thread(this, "Receiver "+destination);
+    public ActiveMQReceiverHandler(
+            String destination,
+            ConnectionFactory connectionFactory,
+            ActiveMQReceiver<T> receiver,
+            Class<? extends T> receiverType,
+            ObjectMapper objectMapper,
+            ActiveMQBaseExceptionHandler exceptionHandler,
+            long shutdownWaitInSeconds) {
+        this(destination, connectionFactory, receiver, receiverType, objectMapper, exceptionHandler, shutdownWaitInSeconds, new ActiveMQReceiverConfig());
     }
 
     public ActiveMQReceiverHandler(
@@ -78,206 +173,714 @@ public class ActiveMQReceiverHandler<T> implements Managed, Runnable {
         this(destination, connectionFactory, receiver, receiverType, objectMapper, (ActiveMQBaseExceptionHandler) exceptionHandler, shutdownWaitInSeconds);
     }
 
+    // Registers the metrics of this receiver in metricRegistry with names starting with name. Must be called before start()
+    public void registerMetrics(MetricRegistry metricRegistry, String name) {
+        this.metrics = new ActiveMQReceiverMetrics(metricRegistry, name);
+    }
+
     @Override
     public void start() throws Exception {
-        log.info("Starting receiver for " + destination);
-        thread.start();
+        log.info("Starting receiver for " + destination + " with " + receiverConfig.concurrentConsumers + " consumer(s)"
+                + (receiverConfig.useMessageListener ? " using MessageListener" : ""));
+        for (int i = 0; i < receiverConfig.concurrentConsumers; i++) {
+            startConsumer(false);
+        }
+        if (receiverConfig.useMessageListener && receiverConfig.maxConcurrentConsumers > receiverConfig.concurrentConsumers) {
+            // Listener-consumers are never polling, so we have to look for idle ones from the outside
+            shrinkTask = scheduler.scheduleWithFixedDelay(this::shrinkIdleListenerConsumers, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    private synchronized void startConsumer(boolean surplus) {
+        if (shouldStop.get()) {
+            return;
+        }
+        final int n = consumerCounter.incrementAndGet();
+        final String name = receiverConfig.maxConcurrentConsumers > 1 ? "Receiver " + destination + "-" + n : "Receiver " + destination;
+        final Consumer consumer = receiverConfig.useMessageListener ? new ListenerConsumer(surplus) : new PollingConsumer(surplus);
+        consumers.add(consumer);
+        consumer.start(name);
+    }
+
+    // Called when a consumer received a message: if no-one else is free to take the next one, we add a consumer.
+    // This is called for every message, so we only take the lock when it looks like we have to add one
+    private void scaleUpIfAllBusy() {
+        if (receiverConfig.maxConcurrentConsumers <= receiverConfig.concurrentConsumers
+                || busyConsumers.get() < consumers.size()
+                || consumers.size() >= receiverConfig.maxConcurrentConsumers) {
+            return;
+        }
+        synchronized (this) {
+            if (busyConsumers.get() >= consumers.size() && consumers.size() < receiverConfig.maxConcurrentConsumers) {
+                log.debug("All {} consumers for {} are busy - starting one more", consumers.size(), destination);
+                startConsumer(true);
+            }
+        }
+    }
+
+    // Returns true if the idle surplus-consumer is allowed to stop
+    private synchronized boolean shrink(Consumer consumer) {
+        if (consumers.size() > receiverConfig.concurrentConsumers) {
+            log.debug("Stopping idle extra consumer for {}", destination);
+            consumers.remove(consumer);
+            return true;
+        }
+        return false;
+    }
+
+    private void shrinkIdleListenerConsumers() {
+        final long maxIdleMillis = receiverConfig.idleReceivesBeforeShrink * RECEIVE_TIMEOUT_MILLS;
+        for (Consumer consumer : consumers) {
+            final ListenerConsumer listenerConsumer = (ListenerConsumer) consumer;
+            if (listenerConsumer.surplus
+                    && System.currentTimeMillis() - listenerConsumer.lastMessageMillis >= maxIdleMillis
+                    && shrink(listenerConsumer)) {
+                // Waits for the consumer if it is connecting
+                connectExecutor.execute(listenerConsumer::close);
+            }
+        }
     }
 
     @Override
     public void stop() throws Exception {
         log.info("Stopping receiver for " + destination + " (Going to wait for max " + shutdownWaitInSeconds + " seconds)");
 
-        if (thread.isAlive()) {
-            shouldStop.set(true);
-            final long start = System.currentTimeMillis();
-            while (thread.isAlive()) {
-                if (((System.currentTimeMillis() - start) / 1000) >= shutdownWaitInSeconds) {
-                    log.warn("Giving up waiting for receiver-thread shutdown");
-                    break;
-                }
-                log.debug("ReceiverThread is still alive..");
-                Thread.sleep(200);
+        shouldStop.set(true);
+        if (shrinkTask != null) {
+            shrinkTask.cancel(false);
+        }
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(shutdownWaitInSeconds);
+        for (Consumer consumer : consumers) {
+            if (!consumer.awaitStop(deadline)) {
+                log.warn("Giving up waiting for receiver-thread shutdown");
+                break;
             }
         }
         log.info("Stopped receiver for " + destination);
     }
 
+    protected Session createSession(Connection connection) throws JMSException {
+        if (receiverConfig.isTransacted()) {
+            return connection.createSession(true, Session.SESSION_TRANSACTED);
+        }
+        return connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+    }
+
+    // Called by all consumers for each message received from the broker, before processing it
+    void onReceived(Message message) {
+        metrics.onReceived(message);
+        try {
+            final long timestamp = message.getJMSTimestamp();
+            if (timestamp > 0) {
+                final long now = System.currentTimeMillis();
+                lastMessageAgeMillis = Math.max(0, now - timestamp);
+                lastMessageReceivedMillis = now;
+            }
+        } catch (JMSException e) {
+            // Not worth failing the message for
+        }
+    }
+
+    // Called by the polling consumers for each received message
+    protected void onMessageReceived(ActiveMQMessageConsumer messageConsumer, Message message) throws JMSException {
+        processMessage(messageConsumer, message);
+    }
+
+    // Called by the polling consumers when no message was received within the receive timeout
+    protected void onReceiveTimeout(ActiveMQMessageConsumer messageConsumer) throws JMSException {
+    }
+
+    // Called by the polling consumers before closing the messageConsumer, also when it failed
+    protected void onReceiveLoopEnded(ActiveMQMessageConsumer messageConsumer) {
+    }
+
     private void processMessage(ActiveMQMessageConsumer messageConsumer, Message message) {
+        if (!processMessage(message)) {
+            rollback(messageConsumer);
+        }
+    }
+
+    // Returns false if the message was not acknowledged and must be rolled back
+    private boolean processMessage(Message message) {
         String json = null;
         try {
             // keep track of the correlationID of the message in the scope of processMessage()
             // the ActiveMQSenderImpl can insert it if correlationID has not already been set
             ActiveMQBundle.correlationID.set(message.getJMSCorrelationID());
-            if (message instanceof TextMessage) {
-                json = ((TextMessage) message).getText();
+            json = getText(message);
+            final T object = decode(message, json);
+            final Timer.Context processTime = metrics.process.time();
+            try {
+                receiver.receive(object);
+            } finally {
+                processTime.stop();
+            }
 
-                if (log.isDebugEnabled()) {
-                    log.debug("Received " + json);
-                }
+            message.acknowledge();
+            metrics.acknowledged.mark();
+            return true;
+        } catch (Exception e) {
+            if (onException(message, json, e)) {
+                acknowledge(message);
+                metrics.acknowledged.mark();
+                return true;
+            } else {
+                return false;
+            }
+        } finally {
+            // The correlationID is only valid within the scope of processMessage()
+            ActiveMQBundle.correlationID.remove();
+        }
+    }
 
-                if ( receiverType.equals(String.class)) {
-                    // pass the string as is
-                    receiver.receive((T)json);
-                } else {
-                    T object = fromJson(json);
-                    receiver.receive(object);
-                }
+    // Returns the text of TextMessages, null for all other messages.
+    // BytesMessages are decoded directly from their bytes, without creating a String first
+    protected String getText(Message message) throws JMSException {
+        if (message instanceof TextMessage) {
+            final String json = ((TextMessage) message).getText();
 
-            } else if (message instanceof ActiveMQMapMessage) {
-                ActiveMQMapMessage m = (ActiveMQMapMessage) message;
-                if (receiverType.equals(Map.class)) {
-                    // pass the string as is
-                    receiver.receive((T) m.getContentMap());
-                } else {
-                    throw new Exception("We received a ActiveMQMapMessage-message, so you have to use receiverType = java.util.Map to receive it");
-                }
-            } else if (message instanceof ActiveMQObjectMessage) {
-                ActiveMQObjectMessage m = (ActiveMQObjectMessage) message;
-                if (receiverType.isAssignableFrom(m.getObject().getClass())) {
-                    receiver.receive((T) m.getObject());
-                }
-                else {
-                    throw new IllegalStateException("Incompatible reciever types. " + receiverType + " must be assignable from " + m.getObject().getClass());
+            if (log.isDebugEnabled()) {
+                log.debug("Received " + json);
+            }
+            return json;
+        }
+        if (message instanceof BytesMessage && log.isDebugEnabled()) {
+            log.debug("Received BytesMessage with " + ((BytesMessage) message).getBodyLength() + " bytes");
+        }
+        return null;
+    }
+
+    // The exceptionHandler gets the text of json BytesMessages too, but we only create it when something has failed
+    protected String getTextForExceptionHandler(Message message, String json) {
+        if (json == null && message instanceof BytesMessage) {
+            try {
+                if (isJson(getCodec(message))) {
+                    ByteSequence bytes = getBody((BytesMessage) message);
+                    return new String(bytes.data, bytes.offset, bytes.length, StandardCharsets.UTF_8);
                 }
+            } catch (Exception e) {
+                log.debug("Could not get the text of " + message, e);
+            }
+        }
+        return json;
+    }
+
+    // Calls the exceptionHandler. Returns true if the message should be acknowledged
+    protected boolean onException(Message message, String json, Exception e) {
+        metrics.exceptions.mark();
+        return exceptionHandler.onException(message, getTextForExceptionHandler(message, json), e);
+    }
+
+    protected T decode(Message message, String json) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            return decodeMessage(message, json);
+        } finally {
+            metrics.decode.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private T decodeMessage(Message message, String json) throws Exception {
+        if (message instanceof TextMessage) {
+            if ( receiverClass.equals(String.class)) {
+                // pass the string as is
+                return (T)json;
             } else {
-                throw new Exception("Do not know how to handle messages of type " + message.getClass());
+                return fromJson(json);
             }
 
+        } else if (message instanceof BytesMessage) {
+            final MessageCodec codec = getCodec(message);
+            ByteSequence bytes = getBody((BytesMessage) message);
+            if ( receiverClass.equals(String.class) && isJson(codec)) {
+                // pass the json as is
+                return (T) new String(bytes.data, bytes.offset, bytes.length, StandardCharsets.UTF_8);
+            } else {
+                return decode(codec, bytes);
+            }
 
-            message.acknowledge();
-        } catch (Exception e) {
-            if (exceptionHandler.onException(message, json, e)) {
-                try {
-                    message.acknowledge();
-                } catch (JMSException x) {
-                    throw new RuntimeException(x);
-                }
+        } else if (message instanceof ActiveMQMapMessage) {
+            ActiveMQMapMessage m = (ActiveMQMapMessage) message;
+            if (receiverClass.equals(Map.class)) {
+                // pass the string as is
+                return (T) m.getContentMap();
             } else {
-                try {
-                    messageConsumer.rollback();
-                } catch (JMSException e1) {
-                    throw new RuntimeException("Error rollbacking failed message", e1);
-                }
+                throw new Exception("We received a ActiveMQMapMessage-message, so you have to use receiverType = java.util.Map to receive it");
             }
-        } finally {
-            // The correlationID is only valid within the scope of processMessage()
-            ActiveMQBundle.correlationID.remove();
+        } else if (message instanceof ActiveMQObjectMessage) {
+            ActiveMQObjectMessage m = (ActiveMQObjectMessage) message;
+            if (receiverClass.isAssignableFrom(m.getObject().getClass())) {
+                return (T) m.getObject();
+            }
+            else {
+                throw new IllegalStateException("Incompatible reciever types. " + receiverType + " must be assignable from " + m.getObject().getClass());
+            }
+        } else {
+            throw new Exception("Do not know how to handle messages of type " + message.getClass());
+        }
+    }
+
+    protected void acknowledge(Message message) {
+        try {
+            message.acknowledge();
+        } catch (JMSException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    protected void rollback(ActiveMQMessageConsumer messageConsumer) {
+        try {
+            messageConsumer.rollback();
+            metrics.rolledBack.mark();
+        } catch (JMSException e1) {
+            throw new RuntimeException("Error rollbacking failed message", e1);
         }
     }
 
     private T fromJson(String json) {
         try {
-            return (T)objectMapper.readValue(json, receiverType);
+            return objectReader.readValue(json);
         } catch (IOException e) {
             throw new JsonError(e);
         }
     }
 
-    @Override
-    public void run() {
+    private MessageCodec getCodec(Message message) throws Exception {
+        final String contentType = message.getStringProperty(ActiveMQSenderImpl.CONTENT_TYPE_PROPERTY);
+        if (contentType == null) {
+            return defaultCodec;
+        }
+        final MessageCodec codec = codecs.getByContentType(contentType);
+        if (codec == null) {
+            throw new Exception("Do not know how to decode BytesMessage with " + ActiveMQSenderImpl.CONTENT_TYPE_PROPERTY + " " + contentType);
+        }
+        return codec;
+    }
+
+    private boolean isJson(MessageCodec codec) {
+        return ActiveMQSenderImpl.JSON_CONTENT_TYPE.equals(codec.getContentType());
+    }
+
+    private T decode(MessageCodec codec, ByteSequence bytes) {
+        final MessageDecoder<T> decoder = decoders.computeIfAbsent(codec.getContentType(), (contentType) -> codec.createDecoder(receiverType));
+        try {
+            return decoder.decode(bytes.data, bytes.offset, bytes.length);
+        } catch (IOException e) {
+            throw new JsonError(e);
+        }
+    }
 
+    // Returns the body of the message, decompressed if it has the contentEncoding-property
+    private ByteSequence getBody(BytesMessage message) throws Exception {
+        final ByteSequence bytes = getBytes(message);
+        final String contentEncoding = message.getStringProperty(ActiveMQSenderImpl.CONTENT_ENCODING_PROPERTY);
+        if (contentEncoding == null) {
+            return bytes;
+        }
+        final MessageCompression compression = MessageCompression.fromContentEncoding(contentEncoding);
+        if (compression == null) {
+            throw new Exception("Do not know how to decompress BytesMessage with " + ActiveMQSenderImpl.CONTENT_ENCODING_PROPERTY + " " + contentEncoding);
+        }
+        return compression.decompress(bytes.data, bytes.offset, bytes.length, receiverConfig.maxDecompressedSize);
+    }
 
-        errorsInARowCount = 0;
-        // From time to time, we get the issue #5 - Use less verbose errors when 'The Consumer is closed'.
-        // When this error has happened (and only once) we must suppress the re-init logging.
-        boolean verboseInitLogging = true;
-        while(!shouldStop.get()) {
+    // Returns the body of the message without copying it when possible
+    private ByteSequence getBytes(BytesMessage message) throws JMSException {
+        if (message instanceof ActiveMQBytesMessage && !((ActiveMQBytesMessage) message).isCompressed()) {
+            ByteSequence content = ((ActiveMQBytesMessage) message).getContent();
+            if (content != null) {
+                return content;
+            }
+        }
+        message.reset();
+        byte[] bytes = new byte[(int) message.getBodyLength()];
+        message.readBytes(bytes);
+        return new ByteSequence(bytes);
+    }
 
+    private ActiveMQMessageConsumer convertToActiveMQMessageConsumer(MessageConsumer rawMessageConsumer) {
+        if ( rawMessageConsumer instanceof ActiveMQMessageConsumer) {
+            return (ActiveMQMessageConsumer)rawMessageConsumer;
+        } else if (rawMessageConsumer instanceof PooledMessageConsumer) {
             try {
+                return (ActiveMQMessageConsumer) pooledMessageConsumerDelegateField.get(rawMessageConsumer);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Error extracting ActiveMQMessageConsumer from " + rawMessageConsumer.getClass(), e);
+            }
+        } else {
+            throw new RuntimeException("Unable to convert messageConsumer '" + rawMessageConsumer.getClass() + "' to ActiveMQMessageConsumer");
+        }
+    }
 
-                if (verboseInitLogging) {
-                    log.info("Setting up receiver for " + destination);
-                } else {
-                    log.debug("Setting up receiver for " + destination);
+    // One consumer has its own connection, session and messageConsumer for the destination
+    private abstract class Consumer {
+
+        protected final boolean surplus;
+        protected int errorsInARowCount = 0;
+        protected volatile long lastReceiveMillis = System.currentTimeMillis();
+
+        Consumer(boolean surplus) {
+            this.surplus = surplus;
+        }
+
+        abstract void start(String name);
+
+        // Returns false if we gave up waiting before deadline
+        abstract boolean awaitStop(long deadline) throws InterruptedException;
+
+        // How long it is since the consumer was last ready to receive a message
+        long millisSinceReceive(long now) {
+            return now - lastReceiveMillis;
+        }
+    }
+
+    // Uses its own thread polling the messageConsumer
+    private class PollingConsumer extends Consumer implements Runnable {
+
+        private Thread thread;
+
+        PollingConsumer(boolean surplus) {
+            super(surplus);
+        }
+
+        @Override
+        void start(String name) {
+            thread = new Thread(this, name);
+            thread.start();
+        }
+
+        @Override
+        boolean awaitStop(long deadline) throws InterruptedException {
+            while (thread.isAlive()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
                 }
+                log.debug("ReceiverThread is still alive..");
+                Thread.sleep(200);
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+
+            errorsInARowCount = 0;
+            // From time to time, we get the issue #5 - Use less verbose errors when 'The Consumer is closed'.
+            // When this error has happened (and only once) we must suppress the re-init logging.
+            boolean verboseInitLogging = true;
+            boolean keepRunning = true;
+            while(keepRunning && !shouldStop.get()) {
 
-                final Connection connection = connectionFactory.createConnection();
                 try {
-                    connection.start();
-                    final Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
-                    try {
 
-                        final Destination d = destinationCreator.create(session, destination);
-                        final MessageConsumer rawMessageConsumer = session.createConsumer(d);
-                        final ActiveMQMessageConsumer messageConsumer = convertToActiveMQMessageConsumer(rawMessageConsumer);
+                    if (verboseInitLogging) {
+                        log.info("Setting up receiver for " + destination);
+                    } else {
+                        log.debug("Setting up receiver for " + destination);
+                    }
+
+                    final Connection connection = connectionFactory.createConnection();
+                    try {
+                        connection.start();
+                        final Session session = createSession(connection);
                         try {
 
-                            if (verboseInitLogging) {
-                                log.info("Started listening for messages on " + destination);
-                            } else {
-                                log.debug("Started listening for messages on " + destination);
+                            final Destination d = destinationCreator.create(session, destination);
+                            final MessageConsumer rawMessageConsumer = session.createConsumer(d);
+                            final ActiveMQMessageConsumer messageConsumer = convertToActiveMQMessageConsumer(rawMessageConsumer);
+                            try {
+
+                                if (verboseInitLogging) {
+                                    log.info("Started listening for messages on " + destination);
+                                } else {
+                                    log.debug("Started listening for messages on " + destination);
+                                }
+
+                                receivingConsumers.incrementAndGet();
+                                try {
+                                    keepRunning = receiverConfig.isTransacted()
+                                            ? runTransactedReceiveLoop(session, messageConsumer)
+                                            : runReceiveLoop(messageConsumer);
+                                } finally {
+                                    receivingConsumers.decrementAndGet();
+                                    onReceiveLoopEnded(messageConsumer);
+                                }
+                            } finally {
+                                ActiveMQUtils.silent(() -> messageConsumer.close());
                             }
-
-                            isReceiving.set(true);
-                            runReceiveLoop(messageConsumer);
                         } finally {
-                            isReceiving.set(false);
-                            ActiveMQUtils.silent(() -> messageConsumer.close());
+                            ActiveMQUtils.silent(() -> session.close());
                         }
+
                     } finally {
-                        ActiveMQUtils.silent(() -> session.close());
+                        ActiveMQUtils.silent(() -> connection.close());
+                    }
+                } catch (Throwable e) {
+                    errorsInARowCount++;
+                    metrics.reconnects.mark();
+                    boolean continuingErrorSituation = errorsInARowCount > 1;
+
+                    // reset the verboseInitLogging-flag
+                    verboseInitLogging = true;
+
+                    // Must check for issue #5 - Use less verbose errors when 'The Consumer is closed'
+                    if ( e instanceof javax.jms.IllegalStateException
+                            && e.getMessage().equals("The Consumer is closed")
+                            && !continuingErrorSituation) {
+                        // This is the first error we see,
+                        // and it is the "javax.jms.IllegalStateException: The Consumer is closed"-error
+                        // log it as debug.
+                        log.debug("Consumer is closed - will try to recover", e);
+                        // In this situation we do not want to verbose log the following initialization
+                        verboseInitLogging = false;
+                    } else {
+                        log.error("Uncaught exception - will try to recover", e);
                     }
 
-                } finally {
-                    ActiveMQUtils.silent(() -> connection.close());
+                    // Prevent using too much CPU when stuff does not work
+                    if (continuingErrorSituation) {
+                        log.warn("Numbers of errors in a row {} - Going to sleep {} mills before retrying", errorsInARowCount, SLEEP_TIME_MILLS);
+                        ActiveMQUtils.silent(() -> Thread.sleep(SLEEP_TIME_MILLS));
+                    }
                 }
-            } catch (Throwable e) {
-                errorsInARowCount++;
-                boolean continuingErrorSituation = errorsInARowCount > 1;
+            }
 
-                // reset the verboseInitLogging-flag
-                verboseInitLogging = true;
+            log.debug("Message-checker-thread stopped");
+        }
 
-                // Must check for issue #5 - Use less verbose errors when 'The Consumer is closed'
-                if ( e instanceof javax.jms.IllegalStateException
-                        && e.getMessage().equals("The Consumer is closed")
-                        && !continuingErrorSituation) {
-                    // This is the first error we see,
-                    // and it is the "javax.jms.IllegalStateException: The Consumer is closed"-error
-                    // log it as debug.
-                    log.debug("Consumer is closed - will try to recover", e);
-                    // In this situation we do not want to verbose log the following initialization
-                    verboseInitLogging = false;
+        // Returns false if this (surplus) consumer has been idle long enough to be stopped
+        private boolean runReceiveLoop(ActiveMQMessageConsumer messageConsumer) throws JMSException {
+            int idleReceivesInARow = 0;
+            while(!shouldStop.get()) {
+                if (log.isTraceEnabled()) {
+                    log.trace("Checking for new message");
+                }
+                Message message = messageConsumer.receive(RECEIVE_TIMEOUT_MILLS);
+                lastReceiveMillis = System.currentTimeMillis();
+                errorsInARowCount = 0;
+                if (message != null) {
+                    idleReceivesInARow = 0;
+                    busyConsumers.incrementAndGet();
+                    try {
+                        scaleUpIfAllBusy();
+                        onReceived(message);
+                        onMessageReceived(messageConsumer, message);
+                    } finally {
+                        busyConsumers.decrementAndGet();
+                    }
                 } else {
-                    log.error("Uncaught exception - will try to recover", e);
+                    onReceiveTimeout(messageConsumer);
+                    if (surplus && ++idleReceivesInARow >= receiverConfig.idleReceivesBeforeShrink && shrink(this)) {
+                        return false;
+                    }
                 }
+            }
+            return true;
+        }
 
-                // Prevent using too much CPU when stuff does not work
-                if (continuingErrorSituation) {
-                    log.warn("Numbers of errors in a row {} - Going to sleep {} mills before retrying", errorsInARowCount, SLEEP_TIME_MILLS);
-                    ActiveMQUtils.silent(() -> Thread.sleep(SLEEP_TIME_MILLS));
+        // Instead of acknowledging each message, we commit every transactedBatchSize messages
+        // or transactedBatchMillis after the first uncommitted one - whichever comes first.
+        // If a message fails, all uncommitted messages are rolled back and redelivered.
+        private boolean runTransactedReceiveLoop(Session session, ActiveMQMessageConsumer messageConsumer) throws JMSException {
+            int idleReceivesInARow = 0;
+            int uncommitted = 0;
+            long firstUncommittedMillis = 0;
+            try {
+                while(!shouldStop.get()) {
+                    if (log.isTraceEnabled()) {
+                        log.trace("Checking for new message");
+                    }
+                    final long timeout = uncommitted > 0
+                            ? Math.max(1, Math.min(RECEIVE_TIMEOUT_MILLS, firstUncommittedMillis + receiverConfig.transactedBatchMillis - System.currentTimeMillis()))
+                            : RECEIVE_TIMEOUT_MILLS;
+                    Message message = messageConsumer.receive(timeout);
+                    lastReceiveMillis = System.currentTimeMillis();
+                    errorsInARowCount = 0;
+                    if (message != null) {
+                        idleReceivesInARow = 0;
+                        busyConsumers.incrementAndGet();
+                        try {
+                            scaleUpIfAllBusy();
+                            onReceived(message);
+                            if (processMessage(message)) {
+                                if (uncommitted++ == 0) {
+                                    firstUncommittedMillis = System.currentTimeMillis();
+                                }
+                            } else {
+                                log.debug("Rolling back {} uncommitted message(s) for {}", uncommitted + 1, destination);
+                                session.rollback();
+                                metrics.rolledBack.mark();
+                                uncommitted = 0;
+                            }
+                        } finally {
+                            busyConsumers.decrementAndGet();
+                        }
+                    } else if (uncommitted == 0 && surplus
+                            && ++idleReceivesInARow >= receiverConfig.idleReceivesBeforeShrink && shrink(this)) {
+                        return false;
+                    }
+
+                    if (uncommitted > 0 && (uncommitted >= receiverConfig.transactedBatchSize
+                            || System.currentTimeMillis() - firstUncommittedMillis >= receiverConfig.transactedBatchMillis)) {
+                        session.commit();
+                        uncommitted = 0;
+                    }
+                }
+            } finally {
+                // Messages we have already processed should not be redelivered when stopping
+                if (uncommitted > 0) {
+                    ActiveMQUtils.silent(session::commit);
                 }
             }
+            return true;
         }
-
-        log.debug("Message-checker-thread stopped");
     }
 
+    // Has no thread of its own: ActiveMQ dispatches the messages to it as they arrive.
+    // Recovery is driven by the connection's ExceptionListener instead of a receive-loop.
+    private class ListenerConsumer extends Consumer implements MessageListener, ExceptionListener {
+
+        private volatile long lastMessageMillis = System.currentTimeMillis();
+        private volatile boolean processing = false;
+        private final AtomicBoolean reconnectScheduled = new AtomicBoolean(false);
+        private boolean closed = false;
+        private boolean receiving = false;
+        private boolean verboseInitLogging = true;
+        private Connection connection;
+        private Session session;
+        private ActiveMQMessageConsumer messageConsumer;
+
+        ListenerConsumer(boolean surplus) {
+            super(surplus);
+        }
 
-    private ActiveMQMessageConsumer convertToActiveMQMessageConsumer(MessageConsumer rawMessageConsumer) {
-        if ( rawMessageConsumer instanceof ActiveMQMessageConsumer) {
-            return (ActiveMQMessageConsumer)rawMessageConsumer;
-        } else if (rawMessageConsumer instanceof PooledMessageConsumer) {
+        @Override
+        void start(String name) {
+            // Do not block application startup if the broker is not available
+            connectExecutor.execute(this::connect);
+        }
+
+        @Override
+        boolean awaitStop(long deadline) {
+            close();
+            return true;
+        }
+
+        private synchronized void connect() {
+            if (closed || shouldStop.get()) {
+                return;
+            }
             try {
-                return (ActiveMQMessageConsumer) pooledMessageConsumerDelegateField.get(rawMessageConsumer);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException("Error extracting ActiveMQMessageConsumer from " + rawMessageConsumer.getClass(), e);
+                if (verboseInitLogging) {
+                    log.info("Setting up receiver for " + destination);
+                } else {
+                    log.debug("Setting up receiver for " + destination);
+                }
+
+                connection = connectionFactory.createConnection();
+                connection.setExceptionListener(this);
+                session = createSession(connection);
+                final Destination d = destinationCreator.create(session, destination);
+                messageConsumer = convertToActiveMQMessageConsumer(session.createConsumer(d));
+                messageConsumer.setMessageListener(this);
+                connection.start();
+
+                if (verboseInitLogging) {
+                    log.info("Started listening for messages on " + destination);
+                } else {
+                    log.debug("Started listening for messages on " + destination);
+                }
+                verboseInitLogging = true;
+                receiving = true;
+                receivingConsumers.incrementAndGet();
+                errorsInARowCount = 0;
+            } catch (Throwable e) {
+                log.error("Error setting up receiver - will try to recover", e);
+                reconnectLater();
             }
-        } else {
-            throw new RuntimeException("Unable to convert messageConsumer '" + rawMessageConsumer.getClass() + "' to ActiveMQMessageConsumer");
         }
-    }
 
-    private void runReceiveLoop(ActiveMQMessageConsumer messageConsumer) throws JMSException {
-        while(!shouldStop.get()) {
-            if (log.isTraceEnabled()) {
-                log.trace("Checking for new message");
-            }
-            Message message = messageConsumer.receive(400);
-            errorsInARowCount = 0;
-            if (message != null) {
+        @Override
+        public void onMessage(Message message) {
+            lastMessageMillis = System.currentTimeMillis();
+            processing = true;
+            busyConsumers.incrementAndGet();
+            try {
+                scaleUpIfAllBusy();
+                onReceived(message);
                 processMessage(messageConsumer, message);
+            } catch (Throwable e) {
+                log.error("Uncaught exception - will try to recover", e);
+                reconnectLater();
+            } finally {
+                busyConsumers.decrementAndGet();
+                processing = false;
+            }
+        }
+
+        // When not processing a message, we are always ready to get the next one
+        @Override
+        long millisSinceReceive(long now) {
+            return processing ? now - lastMessageMillis : 0;
+        }
+
+        @Override
+        public void onException(JMSException e) {
+            // Must check for issue #5 - Use less verbose errors when 'The Consumer is closed'
+            if (errorsInARowCount == 0 && "The Consumer is closed".equals(e.getMessage())) {
+                log.debug("Consumer is closed - will try to recover", e);
+                verboseInitLogging = false;
+            } else {
+                log.error("Connection error - will try to recover", e);
+            }
+            reconnectLater();
+        }
+
+        // We are not allowed to close the session from its own dispatch-thread, so this is done by the connectExecutor
+        private void reconnectLater() {
+            if (!reconnectScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            errorsInARowCount++;
+            metrics.reconnects.mark();
+            // Prevent using too much CPU when stuff does not work
+            final long delay = errorsInARowCount > 1 ? SLEEP_TIME_MILLS : 0;
+            if (delay > 0) {
+                log.warn("Numbers of errors in a row {} - Going to sleep {} mills before retrying", errorsInARowCount, delay);
+            }
+            final Runnable reconnect = () -> {
+                reconnectScheduled.set(false);
+                closeResources();
+                connect();
+            };
+            if (delay > 0) {
+                scheduler.schedule(() -> connectExecutor.execute(reconnect), delay, TimeUnit.MILLISECONDS);
+            } else {
+                connectExecutor.execute(reconnect);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+            closeResources();
+        }
+
+        private synchronized void closeResources() {
+            if (receiving) {
+                receiving = false;
+                receivingConsumers.decrementAndGet();
+            }
+            if (messageConsumer != null) {
+                ActiveMQUtils.silent(() -> messageConsumer.close());
+                messageConsumer = null;
+            }
+            if (session != null) {
+                ActiveMQUtils.silent(() -> session.close());
+                session = null;
+            }
+            if (connection != null) {
+                ActiveMQUtils.silent(() -> connection.close());
+                connection = null;
             }
         }
     }
@@ -286,11 +889,25 @@ public class ActiveMQReceiverHandler<T> implements Managed, Runnable {
         return new HealthCheck() {
             @Override
             protected Result check() throws Exception {
-                if (isReceiving.get()) {
-                    return Result.healthy("Is receiving from " + destination);
-                } else {
+                final int receiving = receivingConsumers.get();
+                if (receiving == 0) {
                     return Result.unhealthy("Is NOT receiving from " + destination);
                 }
+                final long now = System.currentTimeMillis();
+                if (receiverConfig.maxMillisSinceReceive > 0) {
+                    final long millisSinceReceive = consumers.stream().mapToLong((c) -> c.millisSinceReceive(now)).max().orElse(0);
+                    if (millisSinceReceive > receiverConfig.maxMillisSinceReceive) {
+                        return Result.unhealthy("A consumer of " + destination + " has not been ready to receive for "
+                                + millisSinceReceive + " ms - it might be stuck processing a message");
+                    }
+                }
+                // If nothing has been received for a while, we have caught up
+                if (receiverConfig.maxMessageAgeMillis > 0
+                        && lastMessageAgeMillis > receiverConfig.maxMessageAgeMillis
+                        && now - lastMessageReceivedMillis < receiverConfig.maxMessageAgeMillis) {
+                    return Result.unhealthy("Is " + lastMessageAgeMillis + " ms behind on " + destination);
+                }
+                return Result.healthy("Is receiving from " + destination + " with " + receiving + " consumer(s)");
             }
         };
     }
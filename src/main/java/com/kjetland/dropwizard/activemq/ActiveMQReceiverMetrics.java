@@ -0,0 +1,57 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The metrics of one receiver. All names start with the name given when creating it, e.g. ActiveMQ.receiver.queue:orders.received
+ *
+ * - received: Messages received from the broker
+ * - decode: Time spent decoding the messages
+ * - process: Time spent in the receiver, also when it throws
+ * - acknowledged: Messages acknowledged, also when the exceptionHandler said so
+ * - rolledBack: Number of rollbacks. A rollback can redeliver many messages
+ * - exceptions: Number of times the exceptionHandler was called
+ * - reconnects: Number of times a consumer had to recover from an error
+ * - latency: Time from the message was sent (JMSTimestamp) until it was received. Depends on the clocks being in sync
+ */
+class ActiveMQReceiverMetrics {
+
+    final Meter received;
+    final Timer decode;
+    final Timer process;
+    final Meter acknowledged;
+    final Meter rolledBack;
+    final Meter exceptions;
+    final Meter reconnects;
+    final Timer latency;
+
+    ActiveMQReceiverMetrics(MetricRegistry metricRegistry, String name) {
+        this.received = metricRegistry.meter(MetricRegistry.name(name, "received"));
+        this.decode = metricRegistry.timer(MetricRegistry.name(name, "decode"));
+        this.process = metricRegistry.timer(MetricRegistry.name(name, "process"));
+        this.acknowledged = metricRegistry.meter(MetricRegistry.name(name, "acknowledged"));
+        this.rolledBack = metricRegistry.meter(MetricRegistry.name(name, "rolledBack"));
+        this.exceptions = metricRegistry.meter(MetricRegistry.name(name, "exceptions"));
+        this.reconnects = metricRegistry.meter(MetricRegistry.name(name, "reconnects"));
+        this.latency = metricRegistry.timer(MetricRegistry.name(name, "latency"));
+    }
+
+    void onReceived(Message message) {
+        received.mark();
+        try {
+            final long timestamp = message.getJMSTimestamp();
+            // The timestamp is 0 if the producer has disabled it
+            if (timestamp > 0) {
+                latency.update(Math.max(0, System.currentTimeMillis() - timestamp), TimeUnit.MILLISECONDS);
+            }
+        } catch (JMSException e) {
+            // Not worth failing the message for
+        }
+    }
+}
@@ -2,10 +2,41 @@ package com.kjetland.dropwizard.activemq;
 
 import javax.jms.Message;
 import javax.jms.Session;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
-public interface ActiveMQSender {
+public interface ActiveMQSender extends AutoCloseable {
 
     void sendJson(String json);
     void send(Object object);
     void send(JMSFunction<Session, Message> messageCreator);
+
+    // Sends all the objects in one transaction: Either all of them are sent, or none.
+    // The default implementation sends them one by one using send(), without a transaction
+    default void sendAll(Collection<?> objects) {
+        for (Object object : objects) {
+            send(object);
+        }
+    }
+
+    // Returns when the message has been handed over to the connection. The returned CompletionStage completes when the
+    // broker has acknowledged the message, or completes exceptionally if sending fails.
+    // Blocks while maxAsyncSendsInFlight messages are waiting to be acknowledged.
+    // The default implementation sends the message using send(), and returns an already completed CompletionStage
+    default CompletionStage<Void> sendAsync(Object object) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            send(object);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    // Releases any resources kept open between sends
+    @Override
+    default void close() {
+    }
 }
@@ -0,0 +1,79 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ActiveMQSenderConfig {
+
+    // Codec used to encode objects: json, smile, cbor or the name of a codec registered with ActiveMQBundle.registerCodec().
+    // Objects are always sent as BytesMessages when using other codecs than json
+    @JsonProperty
+    public String codec = MessageCodecs.JSON;
+
+    // Serialize to a reusable per-thread buffer and send BytesMessages instead of TextMessages.
+    // Receivers must be able to receive BytesMessages (this bundle can since version 0.5.3)
+    @JsonProperty
+    public boolean useBytesMessage = false;
+
+    // Compress (and send as BytesMessages) messages of at least compressionThreshold bytes: NONE, GZIP or LZ4.
+    // Receivers decompress messages with the contentEncoding-property before decoding them
+    @JsonProperty
+    public MessageCompression compression = MessageCompression.NONE;
+
+    @JsonProperty
+    public int compressionThreshold = 8 * 1024;
+
+    // Keep connections, sessions and producers open between sends instead of creating them for every message.
+    // Create the sender once and reuse it when enabling this
+    @JsonProperty
+    public boolean cacheProducers = false;
+
+    // Max number of producers kept open by each sender. More are created (and closed after use)
+    // when more threads are sending at the same time
+    @JsonProperty
+    public int maxCachedProducers = 8;
+
+    // Let concurrent send()-calls share transactions: A background thread sends the messages in transacted batches,
+    // and each caller waits until its batch is committed. Trades a little latency for higher throughput of persistent messages.
+    // Create the sender once and reuse it when enabling this
+    @JsonProperty
+    public boolean groupCommit = false;
+
+    // Only used with groupCommit: Max number of messages committed in one transaction
+    @JsonProperty
+    public int groupCommitMaxBatchSize = 100;
+
+    // Only used with groupCommit: Max time to wait for more messages after the first message of a batch
+    @JsonProperty
+    public long groupCommitLingerMillis = 5;
+
+    // Only used with groupCommit: Max time send() waits for the commit before failing
+    @JsonProperty
+    public long groupCommitTimeoutMillis = 30000;
+
+    // Max number of messages sent with sendAsync() waiting to be acknowledged by the broker.
+    // sendAsync() blocks when reaching the limit
+    @JsonProperty
+    public int maxAsyncSendsInFlight = 1000;
+
+    // A per-thread buffer that has grown larger than this is not kept for reuse after sending
+    @JsonProperty
+    public int maxReusedBufferSize = 1024 * 1024;
+
+    @Override
+    public String toString() {
+        return "ActiveMQSenderConfig{" +
+                "codec='" + codec + '\'' +
+                ", useBytesMessage=" + useBytesMessage +
+                ", compression=" + compression +
+                ", compressionThreshold=" + compressionThreshold +
+                ", cacheProducers=" + cacheProducers +
+                ", maxCachedProducers=" + maxCachedProducers +
+                ", groupCommit=" + groupCommit +
+                ", groupCommitMaxBatchSize=" + groupCommitMaxBatchSize +
+                ", groupCommitLingerMillis=" + groupCommitLingerMillis +
+                ", groupCommitTimeoutMillis=" + groupCommitTimeoutMillis +
+                ", maxAsyncSendsInFlight=" + maxAsyncSendsInFlight +
+                ", maxReusedBufferSize=" + maxReusedBufferSize +
+                '}';
+    }
+}
@@ -6,4 +6,7 @@ public interface ActiveMQSenderFactory {
     ActiveMQSender createSender(String destination, boolean persistent);
 
     ActiveMQSender createSender(String destination, boolean persistent, Optional<Integer> timeToLiveInSeconds);
+
+    ActiveMQSender createSender(String destination, boolean persistent, Optional<Integer> timeToLiveInSeconds,
+                                ActiveMQSenderConfig senderConfig);
 }
@@ -1,9 +1,17 @@
 package com.kjetland.dropwizard.activemq;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQMessageProducer;
+import org.apache.activemq.AsyncCallback;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.apache.activemq.jms.pool.PooledSession;
+import org.apache.activemq.util.ByteSequence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
@@ -13,70 +21,274 @@ import javax.jms.Message;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.jms.TextMessage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ActiveMQSenderImpl implements ActiveMQSender {
 
+    // Set on all messages sent as objects/json, so that receivers know how to decode BytesMessages
+    public static final String CONTENT_TYPE_PROPERTY = "contentType";
+    public static final String JSON_CONTENT_TYPE = "application/json";
+    // Set on compressed BytesMessages
+    public static final String CONTENT_ENCODING_PROPERTY = "contentEncoding";
+
+    // Shared by all senders, since a thread only uses one of them at the time
+    private static final ThreadLocal<ReusableByteArrayOutputStream> buffers =
+            ThreadLocal.withInitial(ReusableByteArrayOutputStream::new);
+
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final ConnectionFactory connectionFactory;
     private final ObjectMapper objectMapper;
     private final String destination;
     private final Optional<Integer> timeToLiveInSeconds;
     private final boolean persistent;
+    private final ActiveMQSenderConfig senderConfig;
+    private final MessageCodec codec;
     protected final DestinationCreator destinationCreator = new DestinationCreatorImpl();
+    // Only used when senderConfig.cacheProducers is true. Each one is only used by one thread at the time
+    private final ConcurrentLinkedDeque<CachedProducer> cachedProducers = new ConcurrentLinkedDeque<>();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    // Limits the number of async sends not yet acknowledged by the broker
+    private final Semaphore asyncSendsInFlight;
+    // Only used when senderConfig.groupCommit is true
+    private final ActiveMQGroupCommitter groupCommitter;
+    // Not registered anywhere until registerMetrics() is called
+    private ActiveMQSenderMetrics metrics;
 
 
     public ActiveMQSenderImpl(ConnectionFactory connectionFactory, ObjectMapper objectMapper, String destination,
                               Optional<Integer> timeToLiveInSeconds, boolean persistent) {
+        this(connectionFactory, objectMapper, destination, timeToLiveInSeconds, persistent, new ActiveMQSenderConfig());
+    }
+
+    public ActiveMQSenderImpl(ConnectionFactory connectionFactory, ObjectMapper objectMapper, String destination,
+                              Optional<Integer> timeToLiveInSeconds, boolean persistent, ActiveMQSenderConfig senderConfig) {
+        this(connectionFactory, objectMapper, destination, timeToLiveInSeconds, persistent, senderConfig, new MessageCodecs(objectMapper));
+    }
+
+    public ActiveMQSenderImpl(ConnectionFactory connectionFactory, ObjectMapper objectMapper, String destination,
+                              Optional<Integer> timeToLiveInSeconds, boolean persistent, ActiveMQSenderConfig senderConfig,
+                              MessageCodecs codecs) {
         this.connectionFactory = connectionFactory;
         this.objectMapper = objectMapper;
         this.destination = destination;
         this.timeToLiveInSeconds = timeToLiveInSeconds;
         this.persistent = persistent;
+        this.senderConfig = senderConfig;
+        this.codec = codecs.getByName(senderConfig.codec);
+        this.asyncSendsInFlight = new Semaphore(senderConfig.maxAsyncSendsInFlight);
+        this.groupCommitter = senderConfig.groupCommit
+                ? new ActiveMQGroupCommitter(destination, connectionFactory, this::createProducer, senderConfig)
+                : null;
+        this.metrics = new ActiveMQSenderMetrics(new MetricRegistry(), destination);
+    }
+
+    // Registers the metrics of this sender in metricRegistry with names starting with name.
+    // Senders registered with the same name share their metrics
+    public void registerMetrics(MetricRegistry metricRegistry, String name) {
+        this.metrics = new ActiveMQSenderMetrics(metricRegistry, name);
     }
 
     @Override
     public void send(Object object) {
         try {
 
-            final String json = objectMapper.writeValueAsString(object);
-            internalSend(json);
+            internalSend(object, this::internalSend);
+
+        } catch (Exception e) {
+            metrics.failures.mark();
+            throw new RuntimeException("Error sending to jms", e);
+        }
+
+    }
+
+    @Override
+    public CompletionStage<Void> sendAsync(Object object) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            asyncSendsInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(new RuntimeException("Interrupted while waiting to send to jms", e));
+            return future;
+        }
+
+        try {
+
+            internalSend(object, (messageCreator) -> internalSendAsync(messageCreator, future));
 
         } catch (Exception e) {
+            metrics.failures.mark();
+            asyncSendsInFlight.release();
+            future.completeExceptionally(new RuntimeException("Error sending to jms", e));
+        }
+        return future;
+    }
+
+    @Override
+    public void sendAll(Collection<?> objects) {
+        if (objects.isEmpty()) {
+            return;
+        }
+        try {
+
+            final Timer.Context sendAllTime = metrics.sendAll.time();
+            internalSendAll(objects);
+            sendAllTime.stop();
+
+        } catch (Exception e) {
+            metrics.failures.mark();
             throw new RuntimeException("Error sending to jms", e);
         }
+    }
 
+    private void internalSend(Object object, SendFunction sendFunction) throws Exception {
+        if (senderConfig.useBytesMessage || !isJson(codec)) {
+            internalSendBytes(object, sendFunction);
+        } else {
+            final Timer.Context serializeTime = metrics.serialize.time();
+            final String json = objectMapper.writeValueAsString(object);
+            serializeTime.stop();
+            internalSend(json, sendFunction);
+        }
     }
 
     @Override
     public void sendJson(String json) {
         try {
 
-            internalSend(json);
+            if (senderConfig.useBytesMessage) {
+                final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+                internalSendBytes(bytes, bytes.length, JSON_CONTENT_TYPE, this::internalSend);
+            } else {
+                internalSend(json, this::internalSend);
+            }
 
         } catch (Exception e) {
+            metrics.failures.mark();
             throw new RuntimeException("Error sending to jms", e);
         }
 
     }
 
-    private void internalSend(String json) throws JMSException {
+    private void internalSend(String json, SendFunction sendFunction) throws JMSException, IOException {
+        // A char is at most 3 bytes in UTF-8, so we only have to encode the json when it might be large enough to be compressed
+        if (isCompressing() && json.length() >= senderConfig.compressionThreshold / 3) {
+            final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length >= senderConfig.compressionThreshold) {
+                internalSendBytes(bytes, bytes.length, JSON_CONTENT_TYPE, sendFunction);
+                return;
+            }
+        }
         if (log.isDebugEnabled()) {
             log.debug("Sending to {}: {}", destination, json);
         }
-        internalSend( session -> {
+        metrics.payloadSize.update(utf8Length(json));
+        // The message might be created by another thread
+        final String correlationId = ActiveMQBundle.correlationID.get();
+        sendFunction.send( session -> {
             final TextMessage textMessage = session.createTextMessage(json);
             textMessage.setText(json);
-            String correlationId = ActiveMQBundle.correlationID.get();
-            if (textMessage.getJMSCorrelationID() == null && correlationId != null) {
-                textMessage.setJMSCorrelationID(correlationId);
-            }
+            // No contentType-property - receivers treat TextMessages as json
+            setCorrelationID(textMessage, correlationId);
             return textMessage;
         } );
     }
 
+    private void internalSendBytes(Object object, SendFunction sendFunction) throws Exception {
+        final ReusableByteArrayOutputStream buffer = buffers.get();
+        try {
+            final Timer.Context serializeTime = metrics.serialize.time();
+            codec.encode(object, buffer);
+            serializeTime.stop();
+            internalSendBytes(buffer.getBuffer(), buffer.size(), codec.getContentType(), sendFunction);
+        } finally {
+            if (buffer.getBuffer().length > senderConfig.maxReusedBufferSize) {
+                buffers.remove();
+            } else {
+                buffer.reset();
+            }
+        }
+    }
+
+    private void internalSendBytes(byte[] bytes, int length, String contentType, SendFunction sendFunction)
+            throws JMSException, IOException {
+        if (log.isDebugEnabled()) {
+            if (JSON_CONTENT_TYPE.equals(contentType)) {
+                log.debug("Sending to {}: {}", destination, new String(bytes, 0, length, StandardCharsets.UTF_8));
+            } else {
+                log.debug("Sending {} bytes of {} to {}", length, contentType, destination);
+            }
+        }
+        // Small messages are sent as they are, since compressing them costs more than it saves
+        final boolean compress = isCompressing() && length >= senderConfig.compressionThreshold;
+        final ByteSequence body;
+        if (compress) {
+            body = senderConfig.compression.compress(bytes, 0, length);
+        } else if (groupCommitter != null) {
+            // The group committer creates the message on its own thread, and might do it after we have given up
+            // waiting and the buffer has been reused
+            body = new ByteSequence(Arrays.copyOf(bytes, length));
+        } else {
+            body = new ByteSequence(bytes, 0, length);
+        }
+        metrics.payloadSize.update(body.length);
+
+        // The message might be created by another thread
+        final String correlationId = ActiveMQBundle.correlationID.get();
+        sendFunction.send( session -> {
+            // The bytes are copied into the message, so the buffer can be reused when we return
+            final BytesMessage bytesMessage = session.createBytesMessage();
+            bytesMessage.writeBytes(body.data, body.offset, body.length);
+            bytesMessage.setStringProperty(CONTENT_TYPE_PROPERTY, contentType);
+            if (compress) {
+                bytesMessage.setStringProperty(CONTENT_ENCODING_PROPERTY, senderConfig.compression.getContentEncoding());
+            }
+            setCorrelationID(bytesMessage, correlationId);
+            return bytesMessage;
+        } );
+    }
+
+    private boolean isCompressing() {
+        return senderConfig.compression != MessageCompression.NONE;
+    }
+
+    private boolean isJson(MessageCodec codec) {
+        return JSON_CONTENT_TYPE.equals(codec.getContentType());
+    }
+
+    private void setCorrelationID(Message message, String correlationId) throws JMSException {
+        if (message.getJMSCorrelationID() == null && correlationId != null) {
+            message.setJMSCorrelationID(correlationId);
+        }
+    }
+
     private void internalSend(JMSFunction<Session, Message> messageCreator) throws JMSException {
+        final Timer.Context sendTime = metrics.send.time();
+        sendSync(messageCreator);
+        sendTime.stop();
+    }
+
+    private void sendSync(JMSFunction<Session, Message> messageCreator) throws JMSException {
+        if (groupCommitter != null) {
+            groupCommitter.send(messageCreator);
+            return;
+        }
+        if (senderConfig.cacheProducers) {
+            sendUsingCachedProducer(messageCreator);
+            return;
+        }
 
         // Since we're using the pooled connectionFactory,
         // we can create connection, session and producer on the fly here.
@@ -88,14 +300,8 @@ public class ActiveMQSenderImpl implements ActiveMQSender {
             final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
             try {
 
-                final Destination d = destinationCreator.create(session, destination);
-                final MessageProducer messageProducer = session.createProducer(d);
+                final MessageProducer messageProducer = createProducer(session);
                 try {
-                    messageProducer.setDeliveryMode(persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
-                    if (timeToLiveInSeconds.isPresent()) {
-                        messageProducer.setTimeToLive(TimeUnit.SECONDS.toMillis(timeToLiveInSeconds.get()));
-                    }
-
                     final Message message = messageCreator.apply(session);
                     messageProducer.send(message);
 
@@ -113,6 +319,172 @@ public class ActiveMQSenderImpl implements ActiveMQSender {
 
     }
 
+    // All messages are sent in one transaction, so either all of them or none are sent
+    private void internalSendAll(Collection<?> objects) throws Exception {
+        final Connection connection = connectionFactory.createConnection();
+        try {
+            final Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+            try {
+                final MessageProducer messageProducer = createProducer(session);
+                try {
+                    for (Object object : objects) {
+                        internalSend(object, (messageCreator) -> messageProducer.send(messageCreator.apply(session)));
+                    }
+                    session.commit();
+                } catch (Exception e) {
+                    ActiveMQUtils.silent(() -> session.rollback());
+                    throw e;
+                } finally {
+                    ActiveMQUtils.silent(() -> messageProducer.close());
+                }
+            } finally {
+                ActiveMQUtils.silent(() -> session.close());
+            }
+        } finally {
+            ActiveMQUtils.silent(() -> connection.close());
+        }
+    }
+
+    private MessageProducer createProducer(Session session) throws JMSException {
+        final MessageProducer messageProducer = session.createProducer(destinationCreator.create(session, destination));
+        messageProducer.setDeliveryMode(persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+        if (timeToLiveInSeconds.isPresent()) {
+            messageProducer.setTimeToLive(TimeUnit.SECONDS.toMillis(timeToLiveInSeconds.get()));
+        }
+        return messageProducer;
+    }
+
+    private void internalSendAsync(JMSFunction<Session, Message> messageCreator, CompletableFuture<Void> future) throws JMSException {
+        final Timer.Context sendTime = metrics.send.time();
+        final AsyncCallback callback = new AsyncCallback() {
+            // Called by the thread reading from the broker, so we let someone else run the code waiting for the future
+            @Override
+            public void onSuccess() {
+                sendTime.stop();
+                asyncSendsInFlight.release();
+                ForkJoinPool.commonPool().execute(() -> future.complete(null));
+            }
+
+            @Override
+            public void onException(JMSException e) {
+                metrics.failures.mark();
+                asyncSendsInFlight.release();
+                ForkJoinPool.commonPool().execute(() -> future.completeExceptionally(new RuntimeException("Error sending to jms", e)));
+            }
+        };
+
+        final Connection connection = connectionFactory.createConnection();
+        try {
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            try {
+                if (!(session instanceof PooledSession)) {
+                    throw new IllegalStateException("sendAsync requires a PooledConnectionFactory");
+                }
+                final Destination d = destinationCreator.create(session, destination);
+                // The producer of the pooled session, since the pooled producer does not support AsyncCallback
+                final ActiveMQMessageProducer producer = (ActiveMQMessageProducer) ((PooledSession) session).getMessageProducer(d);
+                try {
+                    final Message message = messageCreator.apply(session);
+                    producer.send(d, message,
+                            persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT,
+                            Message.DEFAULT_PRIORITY,
+                            timeToLiveInSeconds.map(TimeUnit.SECONDS::toMillis).orElse(Message.DEFAULT_TIME_TO_LIVE),
+                            callback);
+                } finally {
+                    // Anonymous producers are shared by the pooled session, the others must be closed
+                    if (!((PooledConnectionFactory) connectionFactory).isUseAnonymousProducers()) {
+                        ActiveMQUtils.silent(() -> producer.close());
+                    }
+                }
+            } finally {
+                ActiveMQUtils.silent(() -> session.close());
+            }
+        } finally {
+            ActiveMQUtils.silent(() -> connection.close());
+        }
+    }
+
+    // Creates a producer (kept open when caching producers), so that the first send does not have to
+    void warmUp() throws JMSException {
+        if (senderConfig.cacheProducers) {
+            if (cachedProducers.isEmpty()) {
+                cachedProducers.offerFirst(new CachedProducer());
+            }
+            return;
+        }
+        final Connection connection = connectionFactory.createConnection();
+        try {
+            final Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            try {
+                createProducer(session).close();
+            } finally {
+                ActiveMQUtils.silent(() -> session.close());
+            }
+        } finally {
+            ActiveMQUtils.silent(() -> connection.close());
+        }
+    }
+
+    private void sendUsingCachedProducer(JMSFunction<Session, Message> messageCreator) throws JMSException {
+        if (closed.get()) {
+            throw new IllegalStateException("Sender for " + destination + " is closed");
+        }
+        final CachedProducer cachedProducer = cachedProducers.pollFirst();
+        if (cachedProducer == null) {
+            sendUsingCachedProducer(new CachedProducer(), messageCreator);
+            return;
+        }
+
+        try {
+            sendUsingCachedProducer(cachedProducer, messageCreator);
+        } catch (JMSException e) {
+            // The connection is probably broken (e.g. the broker has been restarted), so the other cached producers
+            // are not to be trusted either. We retry once using a new one, and new ones are created when needed
+            log.warn("Error sending to {} using a cached producer - closing the cached producers and retrying: {}", destination, e.toString());
+            closeCachedProducers();
+            sendUsingCachedProducer(new CachedProducer(), messageCreator);
+        }
+    }
+
+    // Puts cachedProducer (back) into the cache after sending, or closes it if the send failed
+    private void sendUsingCachedProducer(CachedProducer cachedProducer, JMSFunction<Session, Message> messageCreator) throws JMSException {
+        boolean sent = false;
+        try {
+            final Message message = messageCreator.apply(cachedProducer.session);
+            cachedProducer.producer.send(message);
+            sent = true;
+        } finally {
+            if (sent && cachedProducers.size() < senderConfig.maxCachedProducers) {
+                cachedProducers.offerFirst(cachedProducer);
+                // Make sure it is not left open if we were closed while sending
+                if (closed.get()) {
+                    closeCachedProducers();
+                }
+            } else {
+                cachedProducer.close();
+            }
+        }
+    }
+
+    private void closeCachedProducers() {
+        CachedProducer cachedProducer;
+        while ((cachedProducer = cachedProducers.pollFirst()) != null) {
+            cachedProducer.close();
+        }
+    }
+
+    // Closes the cached producers and stops the group committer, if any.
+    // The bundle closes the senders it has created when the application stops
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            closeCachedProducers();
+            if (groupCommitter != null) {
+                groupCommitter.close();
+            }
+        }
+    }
+
     @Override
     public void send(JMSFunction<Session, Message> messageCreator) {
         // Since we're using the pooled connectionFactory,
@@ -122,7 +494,75 @@ public class ActiveMQSenderImpl implements ActiveMQSender {
         try {
             internalSend(messageCreator);
         } catch ( JMSException jmsException) {
+            metrics.failures.mark();
             throw new RuntimeException("Error sending to jms", jmsException);
+        } catch (RuntimeException e) {
+            metrics.failures.mark();
+            throw e;
+        }
+    }
+
+    // Sends the message created by messageCreator, synchronously or async
+    private interface SendFunction {
+        void send(JMSFunction<Session, Message> messageCreator) throws JMSException;
+    }
+
+    // A connection, session and producer for our destination, kept open between sends
+    private class CachedProducer {
+        final Connection connection;
+        final Session session;
+        final MessageProducer producer;
+
+        CachedProducer() throws JMSException {
+            connection = connectionFactory.createConnection();
+            try {
+                session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                producer = createProducer(session);
+            } catch (JMSException e) {
+                // Closing the connection also closes the session
+                ActiveMQUtils.silent(() -> connection.close());
+                throw e;
+            }
+        }
+
+        void close() {
+            ActiveMQUtils.silent(() -> producer.close());
+            ActiveMQUtils.silent(() -> session.close());
+            ActiveMQUtils.silent(() -> connection.close());
+        }
+    }
+
+    // The number of bytes in the UTF-8 encoding of s, without encoding it
+    static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are encoded as '?'
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    // Gives access to the internal buffer, so it can be used without copying it
+    private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+
+        ReusableByteArrayOutputStream() {
+            super(1024);
+        }
+
+        byte[] getBuffer() {
+            return buf;
         }
     }
 }
@@ -0,0 +1,33 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * The metrics of the senders for one destination. All names start with the name given when creating it,
+ * e.g. ActiveMQ.sender.queue:orders.send
+ *
+ * - serialize: Time spent encoding objects to json (or the configured codec). Not including compression
+ * - send: Time until the broker has the message, including getting a session from the pool
+ * - sendAll: Time spent sending and committing each collection passed to sendAll()
+ * - payloadSize: Bytes in BytesMessages (after compression), or in the UTF-8 encoded text of TextMessages
+ * - failures: Sends that failed
+ */
+class ActiveMQSenderMetrics {
+
+    final Timer serialize;
+    final Timer send;
+    final Timer sendAll;
+    final Histogram payloadSize;
+    final Meter failures;
+
+    ActiveMQSenderMetrics(MetricRegistry metricRegistry, String name) {
+        this.serialize = metricRegistry.timer(MetricRegistry.name(name, "serialize"));
+        this.send = metricRegistry.timer(MetricRegistry.name(name, "send"));
+        this.sendAll = metricRegistry.timer(MetricRegistry.name(name, "sendAll"));
+        this.payloadSize = metricRegistry.histogram(MetricRegistry.name(name, "payloadSize"));
+        this.failures = metricRegistry.meter(MetricRegistry.name(name, "failures"));
+    }
+}
@@ -0,0 +1,28 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Polls the statistics of the destinations used by the bundle. Requires the statisticsBrokerPlugin on the broker
+public class ActiveMQStatisticsConfig {
+
+    // Poll the statistics of all the destinations this often
+    @JsonProperty
+    public long pollIntervalMillis = 10000;
+
+    // Give up waiting for the statistics of a destination after this long
+    @JsonProperty
+    public long replyTimeoutMillis = 2000;
+
+    // The statistics health check is unhealthy when a destination has more messages than this. Not set means no limit
+    @JsonProperty
+    public Long maxQueueSize;
+
+    @Override
+    public String toString() {
+        return "ActiveMQStatisticsConfig{" +
+                "pollIntervalMillis=" + pollIntervalMillis +
+                ", replyTimeoutMillis=" + replyTimeoutMillis +
+                ", maxQueueSize=" + maxQueueSize +
+                '}';
+    }
+}
@@ -0,0 +1,249 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MapMessage;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Polls the statistics of the added destinations from the broker's statistics destinations
+ * (ActiveMQ.Statistics.Destination.&lt;name&gt;), which requires the statisticsBrokerPlugin on the broker.
+ *
+ * For each destination it registers the gauges name.&lt;destination&gt;.queueSize, enqueueCount, dequeueCount,
+ * consumerCount, producerCount, enqueueRate and dequeueRate (messages per second since the previous poll).
+ * The gauges are null until the broker has replied.
+ *
+ * As a health check it is unhealthy if polling fails, or if a destination has more than maxQueueSize messages.
+ * The broker does not reply for destinations it does not have (yet), so they are only mentioned in the healthy result.
+ */
+public class ActiveMQStatisticsPoller extends HealthCheck {
+
+    public static final String STATISTICS_DESTINATION_PREFIX = "ActiveMQ.Statistics.Destination.";
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ConnectionFactory connectionFactory;
+    private final ActiveMQStatisticsConfig config;
+    private final MetricRegistry metricRegistry;
+    private final String name;
+    private final DestinationCreator destinationCreator = new DestinationCreatorImpl();
+    private final Set<String> destinations = ConcurrentHashMap.newKeySet();
+    private final Map<String, DestinationStatistics> statistics = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private volatile long lastPollMillis = 0;
+    private volatile Exception lastError;
+    // Only used by the polling thread
+    private long requestCount = 0;
+    private Connection connection;
+    private Session session;
+    private TemporaryQueue replyQueue;
+    private MessageProducer producer;
+    private MessageConsumer consumer;
+
+    public ActiveMQStatisticsPoller(ConnectionFactory connectionFactory, ActiveMQStatisticsConfig config,
+                                   MetricRegistry metricRegistry, String name) {
+        if (config.pollIntervalMillis < 1) {
+            throw new IllegalArgumentException("pollIntervalMillis must be at least 1");
+        }
+        this.connectionFactory = connectionFactory;
+        this.config = config;
+        this.metricRegistry = metricRegistry;
+        this.name = name;
+    }
+
+    // Starts polling the statistics of destination (if not already doing so), and registers its gauges
+    public void addDestination(String destination) {
+        if (!destinations.add(destination)) {
+            return;
+        }
+        registerGauge(destination, "queueSize", (s) -> s.queueSize);
+        registerGauge(destination, "enqueueCount", (s) -> s.enqueueCount);
+        registerGauge(destination, "dequeueCount", (s) -> s.dequeueCount);
+        registerGauge(destination, "consumerCount", (s) -> s.consumerCount);
+        registerGauge(destination, "producerCount", (s) -> s.producerCount);
+        registerGauge(destination, "enqueueRate", (s) -> s.enqueueRate);
+        registerGauge(destination, "dequeueRate", (s) -> s.dequeueRate);
+    }
+
+    private <V> void registerGauge(String destination, String metric, Function<DestinationStatistics, V> value) {
+        metricRegistry.register(MetricRegistry.name(name, destination, metric), (Gauge<V>) () -> {
+            final DestinationStatistics s = statistics.get(destination);
+            return s != null ? value.apply(s) : null;
+        });
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "ActiveMQ statistics poller");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, 0, config.pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        ActiveMQUtils.silent(() -> scheduler.awaitTermination(config.replyTimeoutMillis + 1000, TimeUnit.MILLISECONDS));
+        scheduler = null;
+        closeResources();
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        if (lastPollMillis == 0) {
+            return Result.unhealthy("Statistics have not been polled yet");
+        }
+        if (lastError != null) {
+            return Result.unhealthy("Error polling statistics: " + lastError);
+        }
+        final long millisSinceLastPoll = System.currentTimeMillis() - lastPollMillis;
+        if (millisSinceLastPoll > 3 * config.pollIntervalMillis + destinations.size() * config.replyTimeoutMillis) {
+            return Result.unhealthy("Statistics were last polled " + millisSinceLastPoll + " ms ago");
+        }
+
+        final List<String> tooLarge = new ArrayList<>();
+        final List<String> missing = new ArrayList<>();
+        for (String destination : destinations) {
+            final DestinationStatistics s = statistics.get(destination);
+            if (s == null) {
+                missing.add(destination);
+            } else if (config.maxQueueSize != null && s.queueSize > config.maxQueueSize) {
+                tooLarge.add(destination + " (" + s.queueSize + ")");
+            }
+        }
+        if (!tooLarge.isEmpty()) {
+            return Result.unhealthy("More than " + config.maxQueueSize + " messages on " + String.join(", ", tooLarge));
+        }
+        if (!missing.isEmpty()) {
+            return Result.healthy("No statistics for " + String.join(", ", missing));
+        }
+        return Result.healthy();
+    }
+
+    void poll() {
+        try {
+            if (connection == null) {
+                open();
+            }
+            for (String destination : destinations) {
+                poll(destination);
+            }
+            lastError = null;
+        } catch (Exception e) {
+            log.debug("Error polling statistics", e);
+            closeResources();
+            lastError = e;
+        }
+        lastPollMillis = System.currentTimeMillis();
+    }
+
+    private void poll(String destination) throws JMSException {
+        final String physicalName = ((ActiveMQDestination) destinationCreator.create(session, destination)).getPhysicalName();
+        final String correlationId = "statistics-" + (++requestCount);
+        final Message request = session.createMessage();
+        request.setJMSReplyTo(replyQueue);
+        request.setJMSCorrelationID(correlationId);
+        producer.send(session.createQueue(STATISTICS_DESTINATION_PREFIX + physicalName), request);
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.replyTimeoutMillis);
+        long timeLeftMillis;
+        while ((timeLeftMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())) > 0) {
+            final Message reply = consumer.receive(timeLeftMillis);
+            if (reply == null) {
+                break;
+            }
+            // Skip late replies to earlier requests
+            if (reply instanceof MapMessage && correlationId.equals(reply.getJMSCorrelationID())) {
+                statistics.put(destination, new DestinationStatistics((MapMessage) reply, statistics.get(destination)));
+                return;
+            }
+        }
+        // The broker does not have the destination (or does not have the statisticsBrokerPlugin)
+        statistics.remove(destination);
+    }
+
+    private void open() throws JMSException {
+        try {
+            connection = connectionFactory.createConnection();
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            replyQueue = session.createTemporaryQueue();
+            producer = session.createProducer(null);
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            consumer = session.createConsumer(replyQueue);
+        } catch (JMSException e) {
+            closeResources();
+            throw e;
+        }
+    }
+
+    private void closeResources() {
+        if (connection != null) {
+            // Closing the connection closes the rest, and deletes the temporary queue
+            final Connection c = connection;
+            ActiveMQUtils.silent(() -> c.close());
+        }
+        connection = null;
+        session = null;
+        replyQueue = null;
+        producer = null;
+        consumer = null;
+    }
+
+    private static class DestinationStatistics {
+        final long timestampMillis = System.currentTimeMillis();
+        final long queueSize;
+        final long enqueueCount;
+        final long dequeueCount;
+        final long consumerCount;
+        final long producerCount;
+        // Messages per second since the previous poll. Null after the first poll
+        final Double enqueueRate;
+        final Double dequeueRate;
+
+        DestinationStatistics(MapMessage reply, DestinationStatistics previous) throws JMSException {
+            queueSize = reply.getLong("size");
+            enqueueCount = reply.getLong("enqueueCount");
+            dequeueCount = reply.getLong("dequeueCount");
+            consumerCount = reply.getLong("consumerCount");
+            producerCount = reply.getLong("producerCount");
+
+            final double seconds = previous != null ? (timestampMillis - previous.timestampMillis) / 1000.0 : 0;
+            if (seconds > 0) {
+                // The counts are reset if the broker restarts
+                enqueueRate = Math.max(0, enqueueCount - previous.enqueueCount) / seconds;
+                dequeueRate = Math.max(0, dequeueCount - previous.dequeueCount) / seconds;
+            } else {
+                enqueueRate = null;
+                dequeueRate = null;
+            }
+        }
+    }
+}
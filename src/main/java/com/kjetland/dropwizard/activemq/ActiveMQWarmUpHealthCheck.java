@@ -0,0 +1,40 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.health.HealthCheck;
+
+/**
+ * Readiness check: Unhealthy until the bundle has opened its pooled connections, sessions and producers.
+ *
+ * If warming up failed when starting (e.g. since the broker was not available), it is tried again each time
+ * the health check runs.
+ */
+public class ActiveMQWarmUpHealthCheck extends HealthCheck {
+
+    private final ActiveMQUtils.RunnableThrowsAll warmUp;
+    private volatile boolean warm = false;
+
+    public ActiveMQWarmUpHealthCheck(ActiveMQUtils.RunnableThrowsAll warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    synchronized void warmUp() throws Exception {
+        if (!warm) {
+            warmUp.run();
+            warm = true;
+        }
+    }
+
+    boolean isWarm() {
+        return warm;
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        try {
+            warmUp();
+        } catch (Exception e) {
+            return Result.unhealthy("Not warmed up: " + e);
+        }
+        return Result.healthy();
+    }
+}
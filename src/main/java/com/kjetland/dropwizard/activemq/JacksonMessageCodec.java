@@ -0,0 +1,51 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// A codec using an ObjectMapper, which decides the format (json, smile, cbor, ..) by its JsonFactory
+public class JacksonMessageCodec implements MessageCodec {
+
+    private final String name;
+    private final String contentType;
+    private final ObjectMapper objectMapper;
+
+    public JacksonMessageCodec(String name, String contentType, ObjectMapper objectMapper) {
+        this.name = name;
+        this.contentType = contentType;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public void encode(Object object, OutputStream out) throws IOException {
+        objectMapper.writeValue(out, object);
+    }
+
+    @Override
+    public <T> MessageDecoder<T> createDecoder(JavaType type) {
+        final ObjectReader objectReader = objectMapper.readerFor(type);
+        return (data, offset, length) -> objectReader.readValue(data, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return "JacksonMessageCodec{" +
+                "name='" + name + '\'' +
+                ", contentType='" + contentType + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,11 @@
+package com.kjetland.dropwizard.activemq;
+
+// How ActiveMQLoadBalancedSender picks the broker for each send
+public enum LoadBalancingStrategy {
+    // Each healthy broker in turn
+    ROUND_ROBIN,
+    // Like ROUND_ROBIN, but a broker with weight 3 gets three times as many messages as one with weight 1
+    WEIGHTED,
+    // The faster of two random healthy brokers, by (exponentially weighted) average send time and sends in progress
+    LEAST_LATENCY
+}
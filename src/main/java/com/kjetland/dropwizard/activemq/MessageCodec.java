@@ -0,0 +1,22 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.JavaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Encodes objects sent by ActiveMQSenderImpl and decodes the body of received BytesMessages.
+// Register your own codecs with ActiveMQBundle.registerCodec()
+public interface MessageCodec {
+
+    // Used to choose the codec in ActiveMQSenderConfig/ActiveMQReceiverConfig
+    String getName();
+
+    // Sent in the contentType-property of the message, so receivers know which codec to decode it with
+    String getContentType();
+
+    void encode(Object object, OutputStream out) throws IOException;
+
+    // Called once per receiver, so the returned decoder should do as much of the work up front as possible
+    <T> MessageDecoder<T> createDecoder(JavaType type);
+}
@@ -0,0 +1,55 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.dropwizard.jackson.Jackson;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The codecs known by senders and receivers, looked up by name or contentType.
+// Contains json (using the application's ObjectMapper), smile and cbor by default.
+public class MessageCodecs {
+
+    public static final String JSON = "json";
+    public static final String SMILE = "smile";
+    public static final String CBOR = "cbor";
+
+    public static final String SMILE_CONTENT_TYPE = "application/x-jackson-smile";
+    public static final String CBOR_CONTENT_TYPE = "application/cbor";
+
+    // The binary codecs do not depend on the application's ObjectMapper, so they are only created once
+    private static class BinaryCodecs {
+        static final MessageCodec smile = new JacksonMessageCodec(SMILE, SMILE_CONTENT_TYPE, Jackson.newObjectMapper(new SmileFactory()));
+        static final MessageCodec cbor = new JacksonMessageCodec(CBOR, CBOR_CONTENT_TYPE, Jackson.newObjectMapper(new CBORFactory()));
+    }
+
+    private final Map<String, MessageCodec> codecsByName = new ConcurrentHashMap<>();
+    private final Map<String, MessageCodec> codecsByContentType = new ConcurrentHashMap<>();
+
+    public MessageCodecs(ObjectMapper objectMapper) {
+        register(new JacksonMessageCodec(JSON, ActiveMQSenderImpl.JSON_CONTENT_TYPE, objectMapper));
+        register(BinaryCodecs.smile);
+        register(BinaryCodecs.cbor);
+    }
+
+    // Replaces any codec with the same name or contentType
+    public void register(MessageCodec codec) {
+        codecsByName.put(codec.getName(), codec);
+        codecsByContentType.put(codec.getContentType(), codec);
+    }
+
+    public MessageCodec getByName(String name) {
+        final MessageCodec codec = codecsByName.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown codec '" + name + "'. Known codecs: " + codecsByName.keySet());
+        }
+        return codec;
+    }
+
+    // Returns null if no codec is registered for contentType
+    public MessageCodec getByContentType(String contentType) {
+        return codecsByContentType.get(contentType);
+    }
+}
@@ -0,0 +1,140 @@
+package com.kjetland.dropwizard.activemq;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+import org.apache.activemq.util.ByteSequence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Compression of the body of BytesMessages. Compressed messages have the contentEncoding-property set.
+public enum MessageCompression {
+
+    NONE {
+        @Override
+        ByteSequence compress(byte[] data, int offset, int length) {
+            return new ByteSequence(data, offset, length);
+        }
+
+        @Override
+        ByteSequence decompress(byte[] data, int offset, int length, int maxSize) {
+            return new ByteSequence(data, offset, length);
+        }
+    },
+
+    GZIP {
+        @Override
+        ByteSequence compress(byte[] data, int offset, int length) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 4));
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8192)) {
+                gzip.write(data, offset, length);
+            }
+            return new ByteSequence(out.toByteArray());
+        }
+
+        @Override
+        ByteSequence decompress(byte[] data, int offset, int length, int maxSize) throws IOException {
+            // The last 4 bytes of the gzip-format is the uncompressed size (modulo 2^32).
+            // It is set by the sender, so it is only used to reject too large messages early and as the initial
+            // buffer size. We still stop decompressing when getting more than maxSize bytes
+            final int uncompressedSize = length >= 4
+                    ? (data[offset + length - 4] & 0xff)
+                    | (data[offset + length - 3] & 0xff) << 8
+                    | (data[offset + length - 2] & 0xff) << 16
+                    | (data[offset + length - 1] & 0xff) << 24
+                    : 0;
+            if (Integer.toUnsignedLong(uncompressedSize) > maxSize) {
+                throw new IOException("Invalid gzip-message: Uncompressed size " + Integer.toUnsignedLong(uncompressedSize)
+                        + " is more than " + maxSize + " bytes");
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(uncompressedSize > 0 ? uncompressedSize : 8192);
+            try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(data, offset, length), 8192)) {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = gzip.read(buffer)) != -1) {
+                    if (read > maxSize - out.size()) {
+                        throw new IOException("Invalid gzip-message: Decompresses to more than " + maxSize + " bytes");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            }
+            return new ByteSequence(out.toByteArray());
+        }
+    },
+
+    // The lz4 block-format, prefixed with the uncompressed size as a 4 byte big-endian int
+    LZ4 {
+        @Override
+        ByteSequence compress(byte[] data, int offset, int length) {
+            final LZ4Compressor compressor = Lz4.compressor;
+            final byte[] compressed = new byte[4 + compressor.maxCompressedLength(length)];
+            compressed[0] = (byte) (length >>> 24);
+            compressed[1] = (byte) (length >>> 16);
+            compressed[2] = (byte) (length >>> 8);
+            compressed[3] = (byte) length;
+            final int compressedLength = compressor.compress(data, offset, length, compressed, 4);
+            return new ByteSequence(compressed, 0, 4 + compressedLength);
+        }
+
+        @Override
+        ByteSequence decompress(byte[] data, int offset, int length, int maxSize) throws IOException {
+            if (length < 4) {
+                throw new IOException("Invalid lz4-message: Only " + length + " bytes");
+            }
+            final int uncompressedSize = (data[offset] & 0xff) << 24
+                    | (data[offset + 1] & 0xff) << 16
+                    | (data[offset + 2] & 0xff) << 8
+                    | (data[offset + 3] & 0xff);
+            // The size is set by the sender, so we must check it before allocating the buffer
+            if (uncompressedSize < 0 || uncompressedSize > maxSize) {
+                throw new IOException("Invalid lz4-message: Uncompressed size " + uncompressedSize
+                        + " is not between 0 and " + maxSize + " bytes");
+            }
+            final byte[] uncompressed = new byte[uncompressedSize];
+            final int decompressedSize;
+            try {
+                // The safe decompressor never reads outside the compressed data, even if it is corrupt
+                decompressedSize = Lz4.decompressor.decompress(data, offset + 4, length - 4, uncompressed, 0, uncompressedSize);
+            } catch (LZ4Exception e) {
+                throw new IOException("Invalid lz4-message", e);
+            }
+            if (decompressedSize != uncompressedSize) {
+                throw new IOException("Invalid lz4-message: Decompressed to " + decompressedSize
+                        + " bytes, expected " + uncompressedSize);
+            }
+            return new ByteSequence(uncompressed);
+        }
+    };
+
+    // Only loaded when using lz4. Both are thread-safe
+    private static class Lz4 {
+        static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+        static final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+    }
+
+    abstract ByteSequence compress(byte[] data, int offset, int length) throws IOException;
+
+    // Throws IOException if the data is invalid, or if it decompresses to more than maxSize bytes
+    abstract ByteSequence decompress(byte[] data, int offset, int length, int maxSize) throws IOException;
+
+    // The value of the contentEncoding-property
+    public String getContentEncoding() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    // Returns null if contentEncoding is unknown
+    static MessageCompression fromContentEncoding(String contentEncoding) {
+        for (MessageCompression compression : values()) {
+            if (compression.getContentEncoding().equals(contentEncoding)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+}
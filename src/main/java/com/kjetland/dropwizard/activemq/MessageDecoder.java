@@ -0,0 +1,8 @@
+package com.kjetland.dropwizard.activemq;
+
+import java.io.IOException;
+
+public interface MessageDecoder<T> {
+
+    T decode(byte[] data, int offset, int length) throws IOException;
+}
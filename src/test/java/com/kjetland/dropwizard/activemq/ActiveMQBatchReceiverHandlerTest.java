@@ -0,0 +1,166 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQBatchReceiverHandlerTest {
+
+    final String url = "tcp://localhost:31219?" +
+            "jms.redeliveryPolicy.maximumRedeliveries=3" +
+            "&jms.redeliveryPolicy.initialRedeliveryDelay=100" +
+            "&jms.redeliveryPolicy.redeliveryDelay=100";
+
+    final String destinationName = "queue:batchQueue";
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private ActiveMQReceiverConfig batchConfig() {
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.maxBatchSize = 100;
+        receiverConfig.maxBatchWaitMillis = 500;
+        return receiverConfig;
+    }
+
+    private void send(int count) {
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
+        for (int i = 0; i < count; i++) {
+            sender.send(i);
+        }
+    }
+
+    private void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (counter.get() < expected && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testMessagesAreReceivedInBatches() throws Exception {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        AtomicInteger received = new AtomicInteger(0);
+
+        ActiveMQBatchReceiverHandler<Integer> h = new ActiveMQBatchReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                (messages) -> {
+                    batchSizes.add(messages.size());
+                    received.addAndGet(messages.size());
+                },
+                Integer.class,
+                objectMapper,
+                (jmsMessage, m, e) -> false,
+                1,
+                batchConfig());
+
+        send(250);
+        h.start();
+        waitFor(received, 250);
+        h.stop();
+
+        assertEquals(250, received.get());
+        assertTrue("Too many batches: " + batchSizes, batchSizes.size() >= 3 && batchSizes.size() < 10);
+        for (Integer size : batchSizes) {
+            assertTrue(size <= 100);
+        }
+    }
+
+    @Test
+    public void testFailingBatchIsRolledBack() throws Exception {
+        AtomicInteger calls = new AtomicInteger(0);
+        AtomicInteger received = new AtomicInteger(0);
+        AtomicInteger exceptions = new AtomicInteger(0);
+
+        ActiveMQBatchReceiverHandler<Integer> h = new ActiveMQBatchReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                (messages) -> {
+                    if (calls.incrementAndGet() == 1) {
+                        throw new RuntimeException("First batch fails");
+                    }
+                    received.addAndGet(messages.size());
+                },
+                Integer.class,
+                objectMapper,
+                (jmsMessage, m, e) -> {
+                    exceptions.incrementAndGet();
+                    return false;
+                },
+                1,
+                batchConfig());
+
+        send(10);
+        h.start();
+        waitFor(received, 10);
+        h.stop();
+
+        assertEquals(1, exceptions.get());
+        assertEquals(10, received.get());
+    }
+
+    @Test
+    public void testUndecodableMessageIsSkippedWhenExceptionHandlerSaysSo() throws Exception {
+        AtomicInteger received = new AtomicInteger(0);
+        AtomicInteger exceptions = new AtomicInteger(0);
+
+        ActiveMQBatchReceiverHandler<Integer> h = new ActiveMQBatchReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                (messages) -> received.addAndGet(messages.size()),
+                Integer.class,
+                objectMapper,
+                (jmsMessage, m, e) -> {
+                    exceptions.incrementAndGet();
+                    return true;
+                },
+                1,
+                batchConfig());
+
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
+        sender.send(1);
+        sender.sendJson("not json");
+        sender.send(2);
+
+        h.start();
+        waitFor(received, 2);
+        Thread.sleep(600);
+        h.stop();
+
+        assertEquals(1, exceptions.get());
+        assertEquals(2, received.get());
+    }
+}
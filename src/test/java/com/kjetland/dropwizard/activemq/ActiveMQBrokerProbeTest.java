@@ -0,0 +1,90 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.health.HealthCheck;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQBrokerProbeTest {
+
+    final String url = "tcp://localhost:31219";
+    BrokerService broker;
+    Timer latency = new Timer();
+    ActiveMQBrokerProbe probe = new ActiveMQBrokerProbe(new ActiveMQConnectionFactory(url), 2000, 100, latency);
+
+    @Before
+    public void setUp() throws Exception {
+        broker = startBroker();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        probe.stop();
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private BrokerService startBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+        return broker;
+    }
+
+    private int brokerConnections() {
+        return broker.getTransportConnectors().get(0).getConnections().size();
+    }
+
+    private HealthCheck.Result waitFor(boolean healthy) throws Exception {
+        long start = System.currentTimeMillis();
+        HealthCheck.Result result = probe.execute();
+        while (result.isHealthy() != healthy && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+            result = probe.execute();
+        }
+        return result;
+    }
+
+    @Test
+    public void testProbesInTheBackgroundUsingOneConnection() throws Exception {
+        assertFalse(probe.execute().isHealthy());
+
+        probe.start();
+        assertTrue(waitFor(true).isHealthy());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(probe.execute().isHealthy());
+        }
+        Thread.sleep(500);
+
+        assertTrue("Expected several probes, got " + latency.getCount(), latency.getCount() >= 3);
+        assertEquals(1, brokerConnections());
+
+        probe.stop();
+        assertFalse(probe.execute().isHealthy());
+    }
+
+    @Test
+    public void testRecoversWhenTheBrokerIsBack() throws Exception {
+        probe.start();
+        assertTrue(waitFor(true).isHealthy());
+
+        broker.stop();
+        broker.waitUntilStopped();
+        assertFalse(waitFor(false).isHealthy());
+
+        broker = startBroker();
+        assertTrue(waitFor(true).isHealthy());
+        assertEquals(1, brokerConnections());
+    }
+}
@@ -0,0 +1,130 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.setup.Environment;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.validation.Validation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQBundleEmbeddedBrokerTest {
+
+    @Rule
+    public TemporaryFolder dataDirectory = new TemporaryFolder();
+
+    Set<String> received = ConcurrentHashMap.newKeySet();
+
+    private ActiveMQConfig config(boolean persistent) {
+        ActiveMQConfig activeMQConfig = new ActiveMQConfig();
+        activeMQConfig.brokerUrl = "vm://embeddedTest?create=false";
+        activeMQConfig.embeddedBroker = new ActiveMQEmbeddedBrokerConfig();
+        activeMQConfig.embeddedBroker.brokerName = "embeddedTest";
+        activeMQConfig.embeddedBroker.persistent = persistent;
+        activeMQConfig.embeddedBroker.dataDirectory = dataDirectory.getRoot().getAbsolutePath();
+        return activeMQConfig;
+    }
+
+    private Environment createEnvironment() {
+        return new Environment("test", Jackson.newObjectMapper(),
+                Validation.buildDefaultValidatorFactory().getValidator(), new MetricRegistry(), getClass().getClassLoader());
+    }
+
+    // Starts them like Dropwizard does, and returns them in the order they are to be stopped
+    private List<LifeCycle> start(Environment environment) throws Exception {
+        List<LifeCycle> managedObjects = new ArrayList<>(environment.lifecycle().getManagedObjects());
+        for (LifeCycle managed : managedObjects) {
+            managed.start();
+        }
+        Collections.reverse(managedObjects);
+        return managedObjects;
+    }
+
+    private void stop(List<LifeCycle> managedObjects) throws Exception {
+        for (LifeCycle managed : managedObjects) {
+            managed.stop();
+        }
+    }
+
+    private void waitForReceived(int expected) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (received.size() < expected && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testSendAndReceiveUsingEmbeddedBroker() throws Exception {
+        Environment environment = createEnvironment();
+        ActiveMQBundle bundle = new ActiveMQBundle();
+        bundle.init(config(false), environment);
+        bundle.registerReceiver("embeddedQueue", received::add, String.class, true);
+        ActiveMQSender sender = bundle.createSender("embeddedQueue", false);
+
+        List<LifeCycle> managedObjects = start(environment);
+        sender.send("hello");
+        waitForReceived(1);
+        assertTrue(environment.healthChecks().runHealthCheck("ActiveMQ").isHealthy());
+        stop(managedObjects);
+
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void testReceiveGenericTypeUsingEmbeddedBroker() throws Exception {
+        Environment environment = createEnvironment();
+        ActiveMQBundle bundle = new ActiveMQBundle();
+        bundle.init(config(false), environment);
+        bundle.registerReceiver(
+                "genericEmbeddedQueue",
+                (List<String> list) -> received.addAll(list),
+                new TypeReference<List<String>>() {},
+                true);
+        ActiveMQSender sender = bundle.createSender("genericEmbeddedQueue", false);
+
+        List<LifeCycle> managedObjects = start(environment);
+        sender.send(Arrays.asList("a", "b"));
+        waitForReceived(2);
+        stop(managedObjects);
+
+        assertEquals(2, received.size());
+        assertTrue(received.contains("b"));
+    }
+
+    @Test
+    public void testPersistentMessagesSurviveRestart() throws Exception {
+        Environment environment = createEnvironment();
+        ActiveMQBundle bundle = new ActiveMQBundle();
+        bundle.init(config(true), environment);
+        ActiveMQSender sender = bundle.createSender("persistentEmbeddedQueue", true);
+
+        List<LifeCycle> managedObjects = start(environment);
+        sender.send("persisted");
+        stop(managedObjects);
+
+        environment = createEnvironment();
+        bundle = new ActiveMQBundle();
+        bundle.init(config(true), environment);
+        bundle.registerReceiver("persistentEmbeddedQueue", received::add, String.class, true);
+
+        managedObjects = start(environment);
+        waitForReceived(1);
+        stop(managedObjects);
+
+        assertEquals(1, received.size());
+        // String receivers get the json as it is
+        assertTrue(received.contains("\"persisted\""));
+    }
+}
@@ -0,0 +1,104 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.setup.Environment;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.validation.Validation;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQBundleWarmUpTest {
+
+    final String url = "tcp://localhost:31219";
+
+    BrokerService broker;
+    ActiveMQBundle bundle;
+
+    private void startBroker() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        bundle.stop();
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private Environment createBundle() {
+        Environment environment = new Environment("test", Jackson.newObjectMapper(),
+                Validation.buildDefaultValidatorFactory().getValidator(), new MetricRegistry(), getClass().getClassLoader());
+
+        ActiveMQConfig activeMQConfig = new ActiveMQConfig();
+        activeMQConfig.brokerUrl = "failover:(" + url + ")?startupMaxReconnectAttempts=1&maxReconnectAttempts=0";
+        // Only count the pooled connections - the background broker probe has a connection of its own
+        activeMQConfig.healthCheckIntervalMillis = 0;
+        activeMQConfig.pool = new ActiveMQPoolConfig();
+        activeMQConfig.pool.maxConnections = 3;
+        activeMQConfig.pool.createConnectionOnStartup = false;
+        activeMQConfig.pool.warmUpConnections = 3;
+        activeMQConfig.pool.warmUpSessionsPerConnection = 2;
+
+        bundle = new ActiveMQBundle();
+        bundle.init(activeMQConfig, environment);
+        return environment;
+    }
+
+    private int brokerConnections() throws Exception {
+        long start = System.currentTimeMillis();
+        while (broker.getTransportConnectors().get(0).getConnections().size() < 3 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(50);
+        }
+        return broker.getTransportConnectors().get(0).getConnections().size();
+    }
+
+    @Test
+    public void testConnectionsAreOpenedWhenStarting() throws Exception {
+        startBroker();
+        Environment environment = createBundle();
+
+        ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.cacheProducers = true;
+        ActiveMQSender sender = bundle.createSender("warmUpQueue", false, Optional.empty(), senderConfig);
+
+        bundle.start();
+
+        assertEquals(3, brokerConnections());
+        assertTrue(environment.healthChecks().runHealthCheck("ActiveMQ_warmUp").isHealthy());
+        sender.send("hello");
+        // No more connections are needed
+        assertEquals(3, brokerConnections());
+    }
+
+    @Test
+    public void testWarmUpIsRetriedByHealthCheck() throws Exception {
+        Environment environment = createBundle();
+
+        // No broker yet
+        bundle.start();
+        HealthCheck.Result result = environment.healthChecks().runHealthCheck("ActiveMQ_warmUp");
+        assertFalse(result.isHealthy());
+
+        startBroker();
+        long start = System.currentTimeMillis();
+        while (!environment.healthChecks().runHealthCheck("ActiveMQ_warmUp").isHealthy()
+                && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(100);
+        }
+        assertTrue(environment.healthChecks().runHealthCheck("ActiveMQ_warmUp").isHealthy());
+    }
+}
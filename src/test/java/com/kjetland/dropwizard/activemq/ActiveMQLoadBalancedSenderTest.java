@@ -0,0 +1,208 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.health.HealthCheck;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ActiveMQLoadBalancedSenderTest {
+
+    @Mock
+    private ActiveMQSender senderA;
+    @Mock
+    private ActiveMQSender senderB;
+    @Mock
+    private ActiveMQSender senderC;
+
+    private ActiveMQLoadBalancedSender createSender(ActiveMQLoadBalancedSenderConfig config) {
+        return createSender(config, Collections.emptyMap());
+    }
+
+    private ActiveMQLoadBalancedSender createSender(ActiveMQLoadBalancedSenderConfig config, Map<String, HealthCheck> healthChecks) {
+        Map<String, ActiveMQSender> senders = new LinkedHashMap<>();
+        senders.put("a", senderA);
+        senders.put("b", senderB);
+        senders.put("c", senderC);
+        return new ActiveMQLoadBalancedSender(senders, healthChecks, config);
+    }
+
+    // Like ActiveMQSenderImpl, which wraps the JMSException
+    private RuntimeException brokerDown() {
+        return new RuntimeException("Broker down", new JMSException("Connection refused"));
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        ActiveMQLoadBalancedSender sender = createSender(new ActiveMQLoadBalancedSenderConfig());
+        for (int i = 0; i < 9; i++) {
+            sender.send(i);
+        }
+        verify(senderA, times(3)).send(any(Object.class));
+        verify(senderB, times(3)).send(any(Object.class));
+        verify(senderC, times(3)).send(any(Object.class));
+    }
+
+    @Test
+    public void testWeighted() throws Exception {
+        ActiveMQLoadBalancedSenderConfig config = new ActiveMQLoadBalancedSenderConfig();
+        config.strategy = LoadBalancingStrategy.WEIGHTED;
+        config.weights.put("a", 3);
+        config.weights.put("b", 2);
+        ActiveMQLoadBalancedSender sender = createSender(config);
+        for (int i = 0; i < 60; i++) {
+            sender.send(i);
+        }
+        verify(senderA, times(30)).send(any(Object.class));
+        verify(senderB, times(20)).send(any(Object.class));
+        verify(senderC, times(10)).send(any(Object.class));
+    }
+
+    @Test
+    public void testLeastLatency() throws Exception {
+        ActiveMQLoadBalancedSenderConfig config = new ActiveMQLoadBalancedSenderConfig();
+        config.strategy = LoadBalancingStrategy.LEAST_LATENCY;
+        config.latencyDecayMillis = 60000;
+        ActiveMQLoadBalancedSender sender = createSender(config);
+        doAnswer((invocation) -> {
+            Thread.sleep(20);
+            return null;
+        }).when(senderA).send(any(Object.class));
+        doAnswer((invocation) -> {
+            Thread.sleep(10);
+            return null;
+        }).when(senderC).send(any(Object.class));
+
+        for (int i = 0; i < 60; i++) {
+            sender.send(i);
+        }
+        // Each broker is tried once. After that the slowest one always loses, and the fastest one gets
+        // the two out of three pairs it is part of
+        verify(senderA, times(1)).send(any(Object.class));
+        verify(senderB, atLeast(25)).send(any(Object.class));
+        verify(senderC, atLeast(5)).send(any(Object.class));
+    }
+
+    @Test
+    public void testLeastLatencyRetriesSlowBroker() throws Exception {
+        ActiveMQLoadBalancedSenderConfig config = new ActiveMQLoadBalancedSenderConfig();
+        config.strategy = LoadBalancingStrategy.LEAST_LATENCY;
+        config.latencyDecayMillis = 20;
+        ActiveMQLoadBalancedSender sender = createSender(config);
+        doAnswer((invocation) -> {
+            Thread.sleep(20);
+            return null;
+        }).when(senderA).send(any(Object.class));
+        doAnswer((invocation) -> {
+            Thread.sleep(1);
+            return null;
+        }).when(senderB).send(any(Object.class));
+        doAnswer((invocation) -> {
+            Thread.sleep(1);
+            return null;
+        }).when(senderC).send(any(Object.class));
+
+        for (int i = 0; i < 300; i++) {
+            sender.send(i);
+        }
+        // Its average has decayed below the others' while it was not used
+        verify(senderA, atLeast(2)).send(any(Object.class));
+    }
+
+    @Test
+    public void testFailingBrokerIsSkipped() throws Exception {
+        ActiveMQLoadBalancedSender sender = createSender(new ActiveMQLoadBalancedSenderConfig());
+        doThrow(brokerDown()).when(senderB).send(any(Object.class));
+
+        for (int i = 0; i < 10; i++) {
+            sender.send(i);
+        }
+        // The failing message is sent to the next broker, and b is not tried again until unhealthyRetryMillis has passed
+        verify(senderB, times(1)).send(any(Object.class));
+        verify(senderA, atLeast(4)).send(any(Object.class));
+        verify(senderC, atLeast(4)).send(any(Object.class));
+    }
+
+    @Test
+    public void testAllBrokersAreTriedWhenAllAreFailing() throws Exception {
+        ActiveMQLoadBalancedSender sender = createSender(new ActiveMQLoadBalancedSenderConfig());
+        doThrow(brokerDown()).when(senderA).send(any(Object.class));
+        doThrow(brokerDown()).when(senderB).send(any(Object.class));
+        doThrow(brokerDown()).when(senderC).send(any(Object.class));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                sender.send(i);
+                fail("Expected send to fail");
+            } catch (RuntimeException e) {
+                assertEquals("Broker down", e.getMessage());
+            }
+        }
+        verify(senderA, times(2)).send(any(Object.class));
+        verify(senderB, times(2)).send(any(Object.class));
+        verify(senderC, times(2)).send(any(Object.class));
+    }
+
+    @Test
+    public void testSerializationErrorIsNotRetriedOnOtherBrokers() throws Exception {
+        ActiveMQLoadBalancedSender sender = createSender(new ActiveMQLoadBalancedSenderConfig());
+        RuntimeException serializationError = new RuntimeException("Error sending to jms", new IOException("Cannot serialize"));
+        doThrow(serializationError).when(senderA).send("bad");
+
+        try {
+            sender.send("bad");
+            fail("Expected send to fail");
+        } catch (RuntimeException e) {
+            assertSame(serializationError, e);
+        }
+        verify(senderB, never()).send(any(Object.class));
+        verify(senderC, never()).send(any(Object.class));
+
+        // a is still healthy
+        for (int i = 0; i < 3; i++) {
+            sender.send(i);
+        }
+        verify(senderA, times(1)).send(2);
+    }
+
+    @Test
+    public void testBrokerWithFailingHealthCheckIsSkipped() throws Exception {
+        Map<String, HealthCheck> healthChecks = new HashMap<>();
+        healthChecks.put("b", new HealthCheck() {
+            @Override
+            protected Result check() throws Exception {
+                return Result.unhealthy("Probe failed");
+            }
+        });
+        ActiveMQLoadBalancedSender sender = createSender(new ActiveMQLoadBalancedSenderConfig(), healthChecks);
+
+        for (int i = 0; i < 10; i++) {
+            sender.send(i);
+        }
+        verify(senderB, never()).send(any(Object.class));
+        verify(senderA, times(5)).send(any(Object.class));
+        verify(senderC, times(5)).send(any(Object.class));
+    }
+
+    @Test
+    public void testCloseClosesAllSenders() throws Exception {
+        createSender(new ActiveMQLoadBalancedSenderConfig()).close();
+        verify(senderA).close();
+        verify(senderB).close();
+        verify(senderC).close();
+    }
+}
@@ -0,0 +1,53 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.setup.Environment;
+import org.junit.Test;
+
+import javax.validation.Validation;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQMultiBundleTest {
+
+    private ActiveMQConfig config(String brokerName) {
+        ActiveMQConfig activeMQConfig = new ActiveMQConfig();
+        activeMQConfig.brokerUrl = "vm://" + brokerName + "?broker.persistent=false&broker.useJmx=false";
+        return activeMQConfig;
+    }
+
+    @Test
+    public void testEachBundleIsCreatedOnce() throws Exception {
+        Environment environment = new Environment("test", Jackson.newObjectMapper(),
+                Validation.buildDefaultValidatorFactory().getValidator(), new MetricRegistry(), getClass().getClassLoader());
+        Map<String, ActiveMQConfig> connections = new LinkedHashMap<>();
+        connections.put("brokerA", config("brokerA"));
+        connections.put("brokerB", config("brokerB"));
+
+        int managedObjectsBefore = environment.lifecycle().getManagedObjects().size();
+        ActiveMQMultiBundle multiBundle = new ActiveMQMultiBundle();
+        multiBundle.run(() -> connections, environment);
+
+        Map<String, ActiveMQBundle> bundles = multiBundle.getActiveMQBundleMap();
+        assertEquals(2, bundles.size());
+        assertSame(bundles.get("brokerA"), bundles.get("brokerA"));
+
+        // The multi bundle starts and stops all of them
+        assertEquals(managedObjectsBefore + 1, environment.lifecycle().getManagedObjects().size());
+        assertTrue(environment.healthChecks().getNames().contains("ActiveMQ_brokerA"));
+        assertTrue(environment.healthChecks().getNames().contains("ActiveMQ_brokerB"));
+
+        multiBundle.start();
+        ActiveMQSender sender = bundles.get("brokerB").createSender("multiQueue", false);
+        sender.send("hello");
+        ActiveMQSender loadBalancedSender = multiBundle.createLoadBalancedSender("multiQueue", false, new ActiveMQLoadBalancedSenderConfig());
+        loadBalancedSender.send("hello");
+        loadBalancedSender.send("hello");
+        multiBundle.stop();
+    }
+}
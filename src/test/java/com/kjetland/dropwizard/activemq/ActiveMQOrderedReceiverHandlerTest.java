@@ -0,0 +1,175 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.TextMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQOrderedReceiverHandlerTest {
+
+    final String url = "tcp://localhost:31219?" +
+            "jms.redeliveryPolicy.maximumRedeliveries=3" +
+            "&jms.redeliveryPolicy.initialRedeliveryDelay=100" +
+            "&jms.redeliveryPolicy.redeliveryDelay=100";
+
+    final String destinationName = "queue:orderedQueue";
+    final String[] groups = {"A", "B", "C", "D"};
+    final int messagesPerGroup = 25;
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    Map<String, List<Integer>> receivedPerGroup = new ConcurrentHashMap<>();
+    Set<String> threadNames = ConcurrentHashMap.newKeySet();
+    AtomicInteger received = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+        for (String group : groups) {
+            receivedPerGroup.put(group, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private ActiveMQReceiverConfig orderedConfig() {
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.orderedWorkerThreads = 4;
+        return receiverConfig;
+    }
+
+    // Messages are sent as "<group>:<sequence>"
+    private void sendMessages() {
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
+        for (int i = 0; i < messagesPerGroup; i++) {
+            for (String group : groups) {
+                final String text = group + ":" + i;
+                sender.send(session -> {
+                    TextMessage message = session.createTextMessage(text);
+                    message.setStringProperty(ActiveMQOrderedReceiverHandler.GROUP_ID_PROPERTY, group);
+                    return message;
+                });
+            }
+        }
+    }
+
+    private void record(String message) {
+        String[] parts = message.split(":");
+        threadNames.add(Thread.currentThread().getName());
+        ActiveMQUtils.silent(() -> Thread.sleep(2));
+        receivedPerGroup.get(parts[0]).add(Integer.parseInt(parts[1]));
+        received.incrementAndGet();
+    }
+
+    private void assertAllReceivedInOrder() throws InterruptedException {
+        final int expected = groups.length * messagesPerGroup;
+        long start = System.currentTimeMillis();
+        while (received.get() < expected && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        assertEquals(expected, received.get());
+
+        List<Integer> inOrder = new ArrayList<>();
+        for (int i = 0; i < messagesPerGroup; i++) {
+            inOrder.add(i);
+        }
+        for (String group : groups) {
+            assertEquals(inOrder, receivedPerGroup.get(group));
+        }
+        assertTrue("Expected more than one worker-thread, got " + threadNames, threadNames.size() > 1);
+    }
+
+    @Test
+    public void testMessagesWithSameGroupAreProcessedInOrder() throws Exception {
+        ActiveMQOrderedReceiverHandler<String> h = new ActiveMQOrderedReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                this::record,
+                String.class,
+                null,
+                objectMapper,
+                (jmsMessage, m, e) -> false,
+                1,
+                orderedConfig());
+
+        sendMessages();
+        h.start();
+        assertAllReceivedInOrder();
+        h.stop();
+    }
+
+    @Test
+    public void testKeyExtractorAndRollbackKeepsOrder() throws Exception {
+        AtomicBoolean failedOnce = new AtomicBoolean(false);
+
+        ActiveMQOrderedReceiverHandler<String> h = new ActiveMQOrderedReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                (m) -> {
+                    if (m.equals("B:10") && failedOnce.compareAndSet(false, true)) {
+                        throw new RuntimeException("Fails the first time");
+                    }
+                    record(m);
+                },
+                String.class,
+                (m) -> m.split(":")[0],
+                objectMapper,
+                (jmsMessage, m, e) -> false,
+                1,
+                orderedConfig());
+
+        sendMessages();
+        h.start();
+        assertAllReceivedInOrder();
+        assertTrue(failedOnce.get());
+        h.stop();
+    }
+
+    @Test
+    public void testStopWithoutStart() throws Exception {
+        ActiveMQOrderedReceiverHandler<String> h = new ActiveMQOrderedReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                this::record,
+                String.class,
+                null,
+                objectMapper,
+                (jmsMessage, m, e) -> false,
+                1,
+                orderedConfig());
+
+        // Like when starting the application failed before this handler was started
+        h.stop();
+    }
+}
@@ -0,0 +1,159 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQReceiverHandlerConcurrentConsumersTest {
+
+    final String url = "tcp://localhost:31219";
+
+    BrokerService broker;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    @Test
+    public void testMessagesAreSpreadOverConsumers() throws Exception {
+        doTestMessagesAreSpreadOverConsumers(false);
+    }
+
+    @Test
+    public void testMessagesAreSpreadOverListenerConsumers() throws Exception {
+        doTestMessagesAreSpreadOverConsumers(true);
+    }
+
+    private void doTestMessagesAreSpreadOverConsumers(boolean useMessageListener) throws Exception {
+        ActiveMQConnectionFactory realConnectionFactory = new ActiveMQConnectionFactory(url);
+        // Make sure one consumer does not grab all the messages
+        realConnectionFactory.getPrefetchPolicy().setQueuePrefetch(1);
+        PooledConnectionFactory connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(realConnectionFactory);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        AtomicInteger okCount = new AtomicInteger(0);
+
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.concurrentConsumers = 2;
+        receiverConfig.maxConcurrentConsumers = 4;
+        receiverConfig.useMessageListener = useMessageListener;
+
+        ActiveMQReceiverHandler<String> h = new ActiveMQReceiverHandler<>(
+                "queue:concurrentQueue",
+                realConnectionFactory,
+                (m) -> {
+                    threadNames.add(Thread.currentThread().getName());
+                    ActiveMQUtils.silent(() -> Thread.sleep(50));
+                    okCount.incrementAndGet();
+                },
+                String.class,
+                objectMapper,
+                (jmsMessage, m, e) -> false,
+                2,
+                receiverConfig);
+
+        h.start();
+        Thread.sleep(200);
+
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, "queue:concurrentQueue", Optional.<Integer>empty(), false);
+        for (int i = 0; i < 40; i++) {
+            sender.sendJson("message-" + i);
+        }
+
+        long start = System.currentTimeMillis();
+        while (okCount.get() < 40 && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(40, okCount.get());
+        assertTrue("Expected more than one consumer-thread, got " + threadNames, threadNames.size() > 1);
+        assertTrue(h.getHealthCheck().execute().isHealthy());
+
+        h.stop();
+        assertFalse(h.getHealthCheck().execute().isHealthy());
+    }
+
+    @Test
+    public void testBlockingConnectDoesNotStallOtherListenerReceivers() throws Exception {
+        CountDownLatch brokerAvailable = new CountDownLatch(1);
+        // Like a failover:// connection retrying while its broker is down
+        ActiveMQConnectionFactory blockingConnectionFactory = new ActiveMQConnectionFactory(url) {
+            @Override
+            public Connection createConnection() throws JMSException {
+                ActiveMQUtils.silent(() -> brokerAvailable.await(10, TimeUnit.SECONDS));
+                return super.createConnection();
+            }
+        };
+
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.useMessageListener = true;
+        ActiveMQReceiverHandler<String> blocked = new ActiveMQReceiverHandler<>(
+                "queue:blockedQueue", blockingConnectionFactory, (m) -> {}, String.class, new ObjectMapper(),
+                (jmsMessage, m, e) -> false, 2, receiverConfig);
+        ActiveMQReceiverHandler<String> h = new ActiveMQReceiverHandler<>(
+                "queue:concurrentQueue", new ActiveMQConnectionFactory(url), (m) -> {}, String.class, new ObjectMapper(),
+                (jmsMessage, m, e) -> false, 2, receiverConfig);
+
+        blocked.start();
+        h.start();
+        long start = System.currentTimeMillis();
+        while (!h.getHealthCheck().execute().isHealthy() && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(50);
+        }
+        assertTrue(h.getHealthCheck().execute().isHealthy());
+        assertFalse(blocked.getHealthCheck().execute().isHealthy());
+
+        brokerAvailable.countDown();
+        h.stop();
+        blocked.stop();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfig() throws Exception {
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.concurrentConsumers = 3;
+        receiverConfig.maxConcurrentConsumers = 2;
+
+        new ActiveMQReceiverHandler<String>(
+                "queue:concurrentQueue",
+                new ActiveMQConnectionFactory(url),
+                (m) -> {},
+                String.class,
+                new ObjectMapper(),
+                (jmsMessage, m, e) -> false,
+                1,
+                receiverConfig);
+    }
+}
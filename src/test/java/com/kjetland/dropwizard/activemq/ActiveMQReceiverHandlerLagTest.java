@@ -0,0 +1,141 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQReceiverHandlerLagTest {
+
+    final String url = "tcp://localhost:31219";
+    final String destinationName = "queue:lagQueue";
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+    AtomicInteger received = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private void send(int count) {
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
+        for (int i = 0; i < count; i++) {
+            sender.send(i);
+        }
+    }
+
+    private void waitForReceived(int expected) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (received.get() < expected && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, received.get());
+    }
+
+    private HealthCheck.Result waitFor(HealthCheck healthCheck, boolean healthy) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        HealthCheck.Result result = healthCheck.execute();
+        while (result.isHealthy() != healthy && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+            result = healthCheck.execute();
+        }
+        return result;
+    }
+
+    private ActiveMQReceiverHandler<Integer> createHandler(ActiveMQReceiver<Integer> receiver, ActiveMQReceiverConfig receiverConfig) {
+        return new ActiveMQReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                receiver,
+                Integer.class,
+                objectMapper,
+                (jmsMessage, m, e) -> false,
+                1,
+                receiverConfig);
+    }
+
+    @Test
+    public void testUnhealthyWhenStuckProcessingAMessage() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.maxMillisSinceReceive = 500;
+        ActiveMQReceiverHandler<Integer> h = createHandler((m) -> {
+            received.incrementAndGet();
+            ActiveMQUtils.silent(() -> release.await(10, TimeUnit.SECONDS));
+        }, receiverConfig);
+        HealthCheck healthCheck = h.getHealthCheck();
+
+        h.start();
+        assertTrue(waitFor(healthCheck, true).isHealthy());
+        Thread.sleep(1000);
+        // Idle, but ready to receive
+        assertTrue(healthCheck.execute().isHealthy());
+
+        send(1);
+        HealthCheck.Result result = waitFor(healthCheck, false);
+        assertFalse(result.isHealthy());
+        assertTrue(result.getMessage(), result.getMessage().contains("stuck processing"));
+        assertEquals(1, received.get());
+
+        release.countDown();
+        assertTrue(waitFor(healthCheck, true).isHealthy());
+        h.stop();
+    }
+
+    @Test
+    public void testUnhealthyUntilCaughtUpWithOldMessages() throws Exception {
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.maxMessageAgeMillis = 500;
+        ActiveMQReceiverHandler<Integer> h = createHandler((m) -> received.incrementAndGet(), receiverConfig);
+        HealthCheck healthCheck = h.getHealthCheck();
+
+        // The messages are more than maxMessageAgeMillis old when received
+        send(3);
+        Thread.sleep(1000);
+        h.start();
+        waitForReceived(3);
+        HealthCheck.Result result = healthCheck.execute();
+        assertFalse(result.isHealthy());
+        assertTrue(result.getMessage(), result.getMessage().contains("behind"));
+
+        // Nothing more to receive, so we have caught up
+        assertTrue(waitFor(healthCheck, true).isHealthy());
+
+        // New messages are received right away
+        send(1);
+        waitForReceived(4);
+        assertTrue(healthCheck.execute().isHealthy());
+        h.stop();
+    }
+}
@@ -0,0 +1,143 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQReceiverHandlerMetricsTest {
+
+    final String url = "tcp://localhost:31219?" +
+            "jms.redeliveryPolicy.maximumRedeliveries=3" +
+            "&jms.redeliveryPolicy.initialRedeliveryDelay=100" +
+            "&jms.redeliveryPolicy.redeliveryDelay=100";
+
+    final String destinationName = "queue:metricsQueue";
+    final String metricsName = "ActiveMQ.receiver." + destinationName;
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+    MetricRegistry metricRegistry = new MetricRegistry();
+    AtomicInteger received = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private void send(String... messages) {
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
+        for (String message : messages) {
+            sender.sendJson(message);
+        }
+    }
+
+    private void waitFor(int expected) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (received.get() < expected && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+    }
+
+    private long meterCount(String name) {
+        return metricRegistry.getMeters().get(MetricRegistry.name(metricsName, name)).getCount();
+    }
+
+    private long timerCount(String name) {
+        return metricRegistry.getTimers().get(MetricRegistry.name(metricsName, name)).getCount();
+    }
+
+    @Test
+    public void testMetricsAreRegisteredAndUpdated() throws Exception {
+        AtomicInteger exceptions = new AtomicInteger(0);
+        ActiveMQReceiverHandler<String> h = new ActiveMQReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                (m) -> {
+                    if (m.equals("fail")) {
+                        throw new RuntimeException("Fails");
+                    }
+                    received.incrementAndGet();
+                },
+                String.class,
+                objectMapper,
+                (jmsMessage, m, e) -> {
+                    exceptions.incrementAndGet();
+                    return true;
+                },
+                1);
+        h.registerMetrics(metricRegistry, metricsName);
+
+        send("a", "b", "fail", "c", "d");
+        h.start();
+        waitFor(4);
+        h.stop();
+
+        assertEquals(4, received.get());
+        assertEquals(1, exceptions.get());
+        assertEquals(5, meterCount("received"));
+        assertEquals(5, meterCount("acknowledged"));
+        assertEquals(1, meterCount("exceptions"));
+        assertEquals(0, meterCount("rolledBack"));
+        assertEquals(0, meterCount("reconnects"));
+        assertEquals(5, timerCount("decode"));
+        // Also the one that failed
+        assertEquals(5, timerCount("process"));
+        assertEquals(5, timerCount("latency"));
+    }
+
+    @Test
+    public void testRollbacksAreCounted() throws Exception {
+        AtomicBoolean failedOnce = new AtomicBoolean(false);
+        ActiveMQReceiverHandler<String> h = new ActiveMQReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                (m) -> {
+                    if (failedOnce.compareAndSet(false, true)) {
+                        throw new RuntimeException("Fails the first time");
+                    }
+                    received.incrementAndGet();
+                },
+                String.class,
+                objectMapper,
+                (jmsMessage, m, e) -> false,
+                1);
+        h.registerMetrics(metricRegistry, metricsName);
+
+        send("a");
+        h.start();
+        waitFor(1);
+        h.stop();
+
+        assertEquals(1, received.get());
+        assertEquals(1, meterCount("rolledBack"));
+        assertEquals(1, meterCount("acknowledged"));
+        assertTrue(meterCount("received") >= 2);
+    }
+}
@@ -68,7 +68,27 @@ public class ActiveMQReceiverHandlerRedeliveryTest {
         doTestRedelivery("topic:someTopic");
     }
 
+    @Test
+    public void testRedeliveryQueueUsingMessageListener() throws Exception {
+        doTestRedelivery("queue:someQueue", messageListenerConfig());
+    }
+
+    @Test
+    public void testRedeliveryTopicUsingMessageListener() throws Exception {
+        doTestRedelivery("topic:someTopic", messageListenerConfig());
+    }
+
+    private ActiveMQReceiverConfig messageListenerConfig() {
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.useMessageListener = true;
+        return receiverConfig;
+    }
+
     private void doTestRedelivery(String destinationName) throws Exception {
+        doTestRedelivery(destinationName, new ActiveMQReceiverConfig());
+    }
+
+    private void doTestRedelivery(String destinationName, ActiveMQReceiverConfig receiverConfig) throws Exception {
         ActiveMQConnectionFactory realConnectionFactory = new ActiveMQConnectionFactory(url);
         PooledConnectionFactory connectionFactory = new PooledConnectionFactory();
         connectionFactory.setConnectionFactory(realConnectionFactory);
@@ -81,10 +101,13 @@ public class ActiveMQReceiverHandlerRedeliveryTest {
             this::receiveMessage,
             String.class,
             objectMapper,
-            this::exceptionHandler,
-            1);
+            (jmsMessage, m, e) -> exceptionHandler(m, e),
+            1,
+            receiverConfig);
 
         h.start();
+        // Make sure a topic-subscriber is ready before we send
+        Thread.sleep(200);
 
         ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
 
@@ -96,5 +119,7 @@ public class ActiveMQReceiverHandlerRedeliveryTest {
 
         assertEquals(3 + 1, errorCount);
         assertEquals(2, okCount);
+
+        h.stop();
     }
 }
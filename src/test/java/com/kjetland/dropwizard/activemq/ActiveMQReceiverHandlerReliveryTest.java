@@ -85,6 +85,11 @@ public class ActiveMQReceiverHandlerReliveryTest {
                 1);
 
         h.start();
+        // A topic-subscriber only gets the messages sent after it has subscribed
+        long start = System.currentTimeMillis();
+        while (!h.getHealthCheck().execute().isHealthy() && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(10);
+        }
 
         ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
 
@@ -96,5 +101,9 @@ public class ActiveMQReceiverHandlerReliveryTest {
 
         assertEquals(3+1, errorCount);
         assertEquals(2, okCount);
+
+        // Else its consumer keeps reconnecting, and ends up connected to the broker of the next test
+        h.stop();
+        sender.close();
     }
 }
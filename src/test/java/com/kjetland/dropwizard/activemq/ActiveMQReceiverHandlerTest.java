@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Sets;
 import org.apache.activemq.ActiveMQMessageConsumer;
+import org.apache.activemq.command.ActiveMQBytesMessage;
 import org.apache.activemq.command.ActiveMQObjectMessage;
 import org.eclipse.jetty.util.ConcurrentHashSet;
 import org.junit.Test;
@@ -16,6 +17,7 @@ import javax.jms.*;
 import javax.validation.Payload;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -121,6 +123,9 @@ public class ActiveMQReceiverHandlerTest {
         else if (m instanceof ActiveMQObjectMessage) {
             return (ActiveMQObjectMessage) m;
         }
+        else if (m instanceof ActiveMQBytesMessage) {
+            return (ActiveMQBytesMessage) m;
+        }
         else {
             throw new IllegalArgumentException("Message type " +  m.getClass()+ " is not supported yet");
         }
@@ -257,6 +262,101 @@ public class ActiveMQReceiverHandlerTest {
 
     }
 
+    @Test
+    public void testGenericReceiverType() throws Exception {
+        setUpMocks("[\"a\", \"b\"]");
+
+        ObjectMapper mapper = new ObjectMapper();
+        AtomicReference<List<String>> RECEIVED_OBJECT = new AtomicReference<>();
+
+        ActiveMQReceiverHandler<List<String>> h = new ActiveMQReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                RECEIVED_OBJECT::set,
+                mapper.getTypeFactory().constructCollectionType(List.class, String.class),
+                mapper,
+                (jmsMessage, m, e) -> receivedExceptions.add(e),
+                1,
+                new ActiveMQReceiverConfig());
+
+        h.start();
+        Thread.sleep(300);
+        assertTrue(receivedExceptions.isEmpty());
+        assertEquals(Arrays.asList("a", "b"), RECEIVED_OBJECT.get());
+        h.stop();
+    }
+
+    private ActiveMQBytesMessage createBytesMessage(String text) throws Exception {
+        ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+        message.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        message.reset();
+        return message;
+    }
+
+    @Test
+    public void testThatBytesMessageIsDecodedAsJson() throws Exception {
+        setUpMocks(createBytesMessage("[\"a\", \"\u00e6\u00f8\u00e5\"]"));
+
+        ObjectMapper mapper = new ObjectMapper();
+        AtomicReference<List<String>> RECEIVED_OBJECT = new AtomicReference<>();
+
+        ActiveMQReceiverHandler<List<String>> h = new ActiveMQReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                RECEIVED_OBJECT::set,
+                mapper.getTypeFactory().constructCollectionType(List.class, String.class),
+                mapper,
+                (jmsMessage, m, e) -> receivedExceptions.add(e),
+                1,
+                new ActiveMQReceiverConfig());
+
+        h.start();
+        Thread.sleep(300);
+        assertTrue(receivedExceptions.isEmpty());
+        assertEquals(Arrays.asList("a", "\u00e6\u00f8\u00e5"), RECEIVED_OBJECT.get());
+        h.stop();
+    }
+
+    @Test
+    public void testThatBytesMessageIsReceivedAsString() throws Exception {
+        setUpMocks(createBytesMessage("a"), createBytesMessage("b"));
+        ActiveMQReceiverHandler<String> h = new ActiveMQReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                (m)->receiveMessage(m),
+                String.class,
+                objectMapper,
+                (m,e) -> exceptionHandler(m,e),
+                1);
+
+        h.start();
+        Thread.sleep(300);
+        assertEquals(Sets.newHashSet("a", "b"), receivedMessages);
+        assertTrue(receivedExceptions.isEmpty());
+        h.stop();
+    }
+
+    @Test
+    public void testThatExceptionHandlerGetsTheTextOfInvalidBytesMessage() throws Exception {
+        setUpMocks(createBytesMessage("not json"));
+
+        Set<String> failedTexts = new ConcurrentHashSet<>();
+        ActiveMQReceiverHandler<List<String>> h = new ActiveMQReceiverHandler<>(
+                destinationName,
+                connectionFactory,
+                (m) -> {},
+                new ObjectMapper().getTypeFactory().constructCollectionType(List.class, String.class),
+                new ObjectMapper(),
+                (jmsMessage, m, e) -> failedTexts.add(m),
+                1,
+                new ActiveMQReceiverConfig());
+
+        h.start();
+        Thread.sleep(300);
+        assertEquals(Sets.newHashSet("not json"), failedTexts);
+        h.stop();
+    }
+
     @Test
     public void testExceptionInReceiver() throws Exception {
         setUpMocks(null, "a", THROW_EXCEPTION_IN_RECEIVER, "b", null, "d");
@@ -0,0 +1,138 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+public class ActiveMQReceiverHandlerTransactedTest {
+
+    final String url = "tcp://localhost:31219?" +
+            "jms.redeliveryPolicy.maximumRedeliveries=3" +
+            "&jms.redeliveryPolicy.initialRedeliveryDelay=100" +
+            "&jms.redeliveryPolicy.redeliveryDelay=100";
+
+    final String queueName = "transactedQueue";
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+    Set<String> received = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private void send(int count) {
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), false);
+        for (int i = 0; i < count; i++) {
+            sender.sendJson("message-" + i);
+        }
+    }
+
+    private long messagesLeftOnQueue() throws Exception {
+        return broker.getDestination(new ActiveMQQueue(queueName)).getDestinationStatistics().getMessages().getCount();
+    }
+
+    private void waitForReceived(int expected) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (received.size() < expected && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+    }
+
+    private ActiveMQReceiverHandler<String> createHandler(ActiveMQReceiver<String> receiver, int batchSize, long batchMillis) {
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.transactedBatchSize = batchSize;
+        receiverConfig.transactedBatchMillis = batchMillis;
+
+        return new ActiveMQReceiverHandler<>(
+                queueName,
+                connectionFactory,
+                receiver,
+                String.class,
+                objectMapper,
+                (jmsMessage, m, e) -> false,
+                1,
+                receiverConfig);
+    }
+
+    @Test
+    public void testAllMessagesAreCommitted() throws Exception {
+        ActiveMQReceiverHandler<String> h = createHandler(received::add, 10, 10000);
+
+        send(45);
+        h.start();
+        waitForReceived(45);
+        h.stop();
+
+        assertEquals(45, received.size());
+        assertEquals(0, messagesLeftOnQueue());
+    }
+
+    @Test
+    public void testUncommittedMessagesAreCommittedAfterTransactedBatchMillis() throws Exception {
+        ActiveMQReceiverHandler<String> h = createHandler(received::add, 100, 200);
+
+        send(3);
+        h.start();
+        waitForReceived(3);
+        Thread.sleep(700);
+
+        assertEquals(3, received.size());
+        assertEquals(0, messagesLeftOnQueue());
+        h.stop();
+    }
+
+    @Test
+    public void testFailureRollsBackUncommittedMessages() throws Exception {
+        AtomicBoolean failedOnce = new AtomicBoolean(false);
+        Set<String> receivedBeforeFailure = ConcurrentHashMap.newKeySet();
+
+        ActiveMQReceiverHandler<String> h = createHandler((m) -> {
+            if (m.equals("message-5") && failedOnce.compareAndSet(false, true)) {
+                throw new RuntimeException("Fails the first time");
+            }
+            if (!failedOnce.get()) {
+                receivedBeforeFailure.add(m);
+            }
+            received.add(m);
+        }, 10, 10000);
+
+        send(20);
+        h.start();
+        waitForReceived(20);
+        h.stop();
+
+        // message-0 to message-4 were rolled back together with message-5, and received again
+        assertEquals(5, receivedBeforeFailure.size());
+        assertEquals(20, received.size());
+        assertEquals(0, messagesLeftOnQueue());
+    }
+}
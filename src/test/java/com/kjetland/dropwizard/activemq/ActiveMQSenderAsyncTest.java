@@ -0,0 +1,141 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.Message;
+import javax.jms.Session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ActiveMQSenderAsyncTest {
+
+    final String url = "tcp://localhost:31219";
+    final String queueName = "asyncQueue";
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connectionFactory.stop();
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private long messagesOnQueue() throws Exception {
+        return broker.getDestination(new ActiveMQQueue(queueName)).getDestinationStatistics().getMessages().getCount();
+    }
+
+    @Test
+    public void testFuturesCompleteWhenBrokerHasTheMessages() throws Exception {
+        ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.maxAsyncSendsInFlight = 10;
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), true, senderConfig);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(sender.sendAsync(i).toCompletableFuture());
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).get(10, TimeUnit.SECONDS);
+
+        // Every message is acknowledged by the broker when its future completes
+        assertEquals(100, messagesOnQueue());
+    }
+
+    @Test
+    public void testFutureCompletesExceptionallyWhenSendFails() throws Exception {
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), true);
+        sender.sendAsync(1).toCompletableFuture().get(10, TimeUnit.SECONDS);
+
+        broker.stop();
+        broker.waitUntilStopped();
+
+        try {
+            sender.sendAsync(2).toCompletableFuture().get(10, TimeUnit.SECONDS);
+            fail("Expected send to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RuntimeException);
+        }
+    }
+
+    @Test
+    public void testSendAsyncRequiresPooledConnectionFactory() throws Exception {
+        ActiveMQSender sender = new ActiveMQSenderImpl(new ActiveMQConnectionFactory(url), objectMapper, queueName, Optional.<Integer>empty(), true);
+        try {
+            sender.sendAsync(1).toCompletableFuture().get(10, TimeUnit.SECONDS);
+            fail("Expected send to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testDefaultSendAsyncUsesSend() throws Exception {
+        List<Object> sent = new CopyOnWriteArrayList<>();
+        // Like the senders implemented before sendAsync and sendAll were added
+        ActiveMQSender sender = new ActiveMQSender() {
+            @Override
+            public void sendJson(String json) {
+                send(json);
+            }
+
+            @Override
+            public void send(Object object) {
+                if ("fail".equals(object)) {
+                    throw new RuntimeException("Error sending to jms");
+                }
+                sent.add(object);
+            }
+
+            @Override
+            public void send(JMSFunction<Session, Message> messageCreator) {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        CompletionStage<Void> ok = sender.sendAsync("ok");
+        assertTrue(ok.toCompletableFuture().isDone());
+        ok.toCompletableFuture().get();
+        assertEquals(1, sent.size());
+
+        try {
+            sender.sendAsync("fail").toCompletableFuture().get(10, TimeUnit.SECONDS);
+            fail("Expected send to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RuntimeException);
+        }
+    }
+}
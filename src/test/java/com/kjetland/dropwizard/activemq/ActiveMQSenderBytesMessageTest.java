@@ -0,0 +1,222 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQSenderBytesMessageTest {
+
+    final String url = "tcp://localhost:31219";
+    final String queueName = "bytesQueue";
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    @Test
+    public void testSendAndReceiveBytesMessages() throws Exception {
+        List<List<String>> received = new CopyOnWriteArrayList<>();
+        List<Exception> exceptions = new CopyOnWriteArrayList<>();
+
+        ActiveMQReceiverHandler<List<String>> h = new ActiveMQReceiverHandler<>(
+                queueName,
+                connectionFactory,
+                received::add,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, String.class),
+                objectMapper,
+                (jmsMessage, m, e) -> exceptions.add(e),
+                1,
+                new ActiveMQReceiverConfig());
+
+        ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.useBytesMessage = true;
+        // Make sure we also send messages larger than the buffer being reused
+        senderConfig.maxReusedBufferSize = 2000;
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), false, senderConfig);
+
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+
+        sender.send(Arrays.asList("a", "\u00e6\u00f8\u00e5"));
+        sender.send(Arrays.asList(large));
+        sender.send(Arrays.asList("b"));
+        sender.sendJson("[\"c\"]");
+
+        h.start();
+        long start = System.currentTimeMillis();
+        while (received.size() < 4 && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        h.stop();
+
+        assertTrue(exceptions.isEmpty());
+        assertEquals(Arrays.asList(
+                Arrays.asList("a", "\u00e6\u00f8\u00e5"),
+                Arrays.asList(large),
+                Arrays.asList("b"),
+                Arrays.asList("c")), received);
+    }
+
+    private ActiveMQSender createSender(String codec) {
+        ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.codec = codec;
+        return new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), false, senderConfig);
+    }
+
+    @Test
+    public void testReceiveFromSendersUsingDifferentCodecs() throws Exception {
+        List<List<String>> received = new CopyOnWriteArrayList<>();
+        List<Exception> exceptions = new CopyOnWriteArrayList<>();
+
+        ActiveMQReceiverHandler<List<String>> h = new ActiveMQReceiverHandler<>(
+                queueName,
+                connectionFactory,
+                received::add,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, String.class),
+                objectMapper,
+                (jmsMessage, m, e) -> exceptions.add(e),
+                1,
+                new ActiveMQReceiverConfig());
+
+        createSender(MessageCodecs.JSON).send(Arrays.asList("json"));
+        createSender(MessageCodecs.SMILE).send(Arrays.asList("smile"));
+        createSender(MessageCodecs.CBOR).send(Arrays.asList("cbor"));
+
+        h.start();
+        long start = System.currentTimeMillis();
+        while (received.size() < 3 && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        h.stop();
+
+        assertTrue(exceptions.isEmpty());
+        assertEquals(Arrays.asList(
+                Arrays.asList("json"),
+                Arrays.asList("smile"),
+                Arrays.asList("cbor")), received);
+    }
+
+    private ActiveMQSender createCompressingSender(String codec, MessageCompression compression) {
+        ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.codec = codec;
+        senderConfig.compression = compression;
+        senderConfig.compressionThreshold = 1000;
+        return new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), false, senderConfig);
+    }
+
+    @Test
+    public void testReceiveCompressedMessages() throws Exception {
+        List<List<String>> received = new CopyOnWriteArrayList<>();
+        List<Exception> exceptions = new CopyOnWriteArrayList<>();
+
+        ActiveMQReceiverHandler<List<String>> h = new ActiveMQReceiverHandler<>(
+                queueName,
+                connectionFactory,
+                received::add,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, String.class),
+                objectMapper,
+                (jmsMessage, m, e) -> exceptions.add(e),
+                1,
+                new ActiveMQReceiverConfig());
+
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+
+        // Only the large messages are compressed
+        createCompressingSender(MessageCodecs.JSON, MessageCompression.GZIP).send(Arrays.asList(large));
+        createCompressingSender(MessageCodecs.JSON, MessageCompression.GZIP).send(Arrays.asList("small"));
+        createCompressingSender(MessageCodecs.JSON, MessageCompression.LZ4).sendJson("[\"" + large + "\"]");
+        createCompressingSender(MessageCodecs.SMILE, MessageCompression.LZ4).send(Arrays.asList(large));
+
+        h.start();
+        long start = System.currentTimeMillis();
+        while (received.size() < 4 && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        h.stop();
+
+        assertTrue(exceptions.isEmpty());
+        assertEquals(Arrays.asList(
+                Arrays.asList(large),
+                Arrays.asList("small"),
+                Arrays.asList(large),
+                Arrays.asList(large)), received);
+    }
+
+    @Test
+    public void testTooLargeCompressedMessagesArePassedToTheExceptionHandler() throws Exception {
+        List<List<String>> received = new CopyOnWriteArrayList<>();
+        List<Exception> exceptions = new CopyOnWriteArrayList<>();
+
+        ActiveMQReceiverConfig receiverConfig = new ActiveMQReceiverConfig();
+        receiverConfig.maxDecompressedSize = 2000;
+        ActiveMQReceiverHandler<List<String>> h = new ActiveMQReceiverHandler<>(
+                queueName,
+                connectionFactory,
+                received::add,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, String.class),
+                objectMapper,
+                (jmsMessage, m, e) -> exceptions.add(e),
+                1,
+                receiverConfig);
+
+        char[] chars = new char[5000];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+
+        createCompressingSender(MessageCodecs.JSON, MessageCompression.GZIP).send(Arrays.asList(large));
+        createCompressingSender(MessageCodecs.JSON, MessageCompression.LZ4).send(Arrays.asList(large));
+        createCompressingSender(MessageCodecs.JSON, MessageCompression.LZ4).send(Arrays.asList("small"));
+
+        h.start();
+        long start = System.currentTimeMillis();
+        while (received.size() + exceptions.size() < 3 && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+        h.stop();
+
+        assertEquals(2, exceptions.size());
+        assertTrue(exceptions.get(0) instanceof IOException);
+        assertTrue(exceptions.get(1) instanceof IOException);
+        assertEquals(Arrays.asList(Arrays.asList("small")), received);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCodec() throws Exception {
+        createSender("xml");
+    }
+}
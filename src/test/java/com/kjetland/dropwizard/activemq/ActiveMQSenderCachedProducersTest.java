@@ -0,0 +1,84 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+
+public class ActiveMQSenderCachedProducersTest {
+
+    final String url = "tcp://localhost:31219";
+    final String queueName = "cachedProducersQueue";
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    private BrokerService startBroker() throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+        return broker;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        broker = startBroker();
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connectionFactory.stop();
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    // Non-persistent messages are sent async, so they might not have arrived yet
+    private long messagesOnQueue(long expected) throws Exception {
+        long start = System.currentTimeMillis();
+        long count;
+        while ((count = broker.getDestination(new ActiveMQQueue(queueName)).getDestinationStatistics().getMessages().getCount()) < expected
+                && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(50);
+        }
+        return count;
+    }
+
+    @Test
+    public void testSenderRecoversAfterBrokerRestart() throws Exception {
+        ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.cacheProducers = true;
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), false, senderConfig);
+
+        for (int i = 0; i < 10; i++) {
+            sender.send(i);
+        }
+        assertEquals(10, messagesOnQueue(10));
+
+        broker.stop();
+        broker.waitUntilStopped();
+        broker = startBroker();
+
+        // The send on the broken connection is retried using a new one
+        for (int i = 0; i < 10; i++) {
+            sender.send(i);
+        }
+        assertEquals(10, messagesOnQueue(10));
+
+        sender.close();
+    }
+}
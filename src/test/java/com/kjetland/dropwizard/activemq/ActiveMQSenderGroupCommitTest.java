@@ -0,0 +1,188 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.JMSException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ActiveMQSenderGroupCommitTest {
+
+    final String url = "tcp://localhost:31219";
+    final String queueName = "groupCommitQueue";
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connectionFactory.stop();
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private long messagesOnQueue() throws Exception {
+        return broker.getDestination(new ActiveMQQueue(queueName)).getDestinationStatistics().getMessages().getCount();
+    }
+
+    private ActiveMQSender createSender(long lingerMillis) {
+        return createSender(lingerMillis, 30000);
+    }
+
+    private ActiveMQSender createSender(long lingerMillis, long timeoutMillis) {
+        ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.groupCommit = true;
+        senderConfig.groupCommitMaxBatchSize = 50;
+        senderConfig.groupCommitLingerMillis = lingerMillis;
+        senderConfig.groupCommitTimeoutMillis = timeoutMillis;
+        return new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), true, senderConfig);
+    }
+
+    @Test
+    public void testConcurrentSendsAreAllCommitted() throws Exception {
+        ActiveMQSender sender = createSender(5);
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 20; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 25; i++) {
+                    sender.send(i);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // send() returns when the message is committed
+        assertEquals(500, messagesOnQueue());
+        sender.close();
+    }
+
+    @Test
+    public void testSendWaitsForCommit() throws Exception {
+        ActiveMQSender sender = createSender(300);
+        long start = System.currentTimeMillis();
+        sender.send(1);
+
+        // The batch is committed when the linger time is over, since nobody else is sending
+        assertTrue(System.currentTimeMillis() - start >= 250);
+        assertEquals(1, messagesOnQueue());
+        sender.close();
+    }
+
+    @Test
+    public void testOnlyTheFailingCallerGetsTheException() throws Exception {
+        ActiveMQSender sender = createSender(200);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> ok = executor.submit(() -> sender.send(1));
+        Future<?> failing = executor.submit(() -> sender.send(session -> {
+            throw new JMSException("Could not create message");
+        }));
+
+        ok.get(10, TimeUnit.SECONDS);
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            fail("Expected send to fail");
+        } catch (Exception e) {
+            // expected
+        }
+        executor.shutdown();
+
+        assertEquals(1, messagesOnQueue());
+        sender.close();
+    }
+
+    @Test
+    public void testSendAfterCloseFails() throws Exception {
+        ActiveMQSender sender = createSender(5);
+        sender.close();
+        try {
+            sender.send(1);
+            fail("Expected send to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testInterruptedSendIsNotSent() throws Exception {
+        // Long linger, so the message is still queued when the caller is interrupted
+        ActiveMQSender sender = createSender(2000);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        AtomicBoolean stillInterrupted = new AtomicBoolean(false);
+        Thread thread = new Thread(() -> {
+            try {
+                sender.send("interrupted");
+            } catch (Throwable e) {
+                error.set(e);
+                stillInterrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        thread.start();
+        Thread.sleep(200);
+        thread.interrupt();
+        thread.join(5000);
+
+        assertTrue(error.get() instanceof RuntimeException);
+        assertTrue(stillInterrupted.get());
+        Thread.sleep(2500);
+        assertEquals(0, messagesOnQueue());
+
+        // The flusher is still working
+        sender.send("ok");
+        assertEquals(1, messagesOnQueue());
+        sender.close();
+    }
+
+    @Test
+    public void testSendTimesOutAndIsNotSent() throws Exception {
+        ActiveMQSender sender = createSender(2000, 200);
+        long start = System.currentTimeMillis();
+        try {
+            sender.send("timeout");
+            fail("Expected timeout");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause().getCause() instanceof TimeoutException);
+        }
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        Thread.sleep(2500);
+        assertEquals(0, messagesOnQueue());
+        sender.close();
+    }
+}
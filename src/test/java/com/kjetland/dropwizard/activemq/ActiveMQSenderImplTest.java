@@ -7,6 +7,7 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.DeliveryMode;
@@ -16,6 +17,10 @@ import javax.jms.MessageProducer;
 import javax.jms.Queue;
 import javax.jms.Session;
 import javax.jms.TextMessage;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -144,6 +149,113 @@ public class ActiveMQSenderImplTest {
         verify(connection).close();
     }
 
+    @Test
+    public void testSendAsBytesMessage() throws Exception {
+        final String queueName = "myQueue";
+        final BytesMessage bytesMessage = mock(BytesMessage.class);
+        final ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.useBytesMessage = true;
+        final ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, new ObjectMapper(), queueName,
+                Optional.<Integer>empty(), false, senderConfig);
+
+        when(session.createQueue(queueName)).thenReturn(queue);
+        when(session.createProducer(queue)).thenReturn(messageProducer);
+        when(session.createBytesMessage()).thenReturn(bytesMessage);
+        // The buffer is reused, so we must copy what is written to the message
+        final List<String> written = new ArrayList<>();
+        doAnswer(invocation -> {
+            Object[] args = invocation.getArguments();
+            written.add(new String((byte[]) args[0], (Integer) args[1], (Integer) args[2], StandardCharsets.UTF_8));
+            return null;
+        }).when(bytesMessage).writeBytes(any(byte[].class), anyInt(), anyInt());
+
+        sender.send("a");
+        sender.send("b");
+
+        assertEquals(Arrays.asList("\"a\"", "\"b\""), written);
+        verify(bytesMessage, times(2)).setStringProperty(ActiveMQSenderImpl.CONTENT_TYPE_PROPERTY, ActiveMQSenderImpl.JSON_CONTENT_TYPE);
+        verify(messageProducer, times(2)).send(bytesMessage);
+        verify(session, never()).createTextMessage(anyString());
+    }
+
+    @Test
+    public void testOnlyLargeMessagesAreCompressed() throws Exception {
+        final String queueName = "myQueue";
+        final BytesMessage largeMessage = mock(BytesMessage.class);
+        final ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.compression = MessageCompression.LZ4;
+        senderConfig.compressionThreshold = 100;
+        final ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, new ObjectMapper(), queueName,
+                Optional.<Integer>empty(), false, senderConfig);
+
+        when(session.createQueue(queueName)).thenReturn(queue);
+        when(session.createProducer(queue)).thenReturn(messageProducer);
+        when(session.createTextMessage(anyString())).thenReturn(textMessage);
+        when(session.createBytesMessage()).thenReturn(largeMessage);
+
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        sender.send("small");
+        sender.sendJson("\"small\"");
+        sender.send(new String(chars));
+
+        // Small messages are sent as TextMessages, like when not compressing
+        verify(session, times(2)).createTextMessage("\"small\"");
+        verify(textMessage, never()).setStringProperty(eq(ActiveMQSenderImpl.CONTENT_ENCODING_PROPERTY), anyString());
+        verify(textMessage, never()).setStringProperty(eq(ActiveMQSenderImpl.CONTENT_TYPE_PROPERTY), anyString());
+        verify(messageProducer, times(2)).send(textMessage);
+        verify(session, times(1)).createBytesMessage();
+        verify(largeMessage).setStringProperty(ActiveMQSenderImpl.CONTENT_ENCODING_PROPERTY, "lz4");
+        verify(messageProducer).send(largeMessage);
+    }
+
+    private ActiveMQSender createCachingSender(String queueName) throws Exception {
+        final ActiveMQSenderConfig senderConfig = new ActiveMQSenderConfig();
+        senderConfig.cacheProducers = true;
+        when(session.createQueue(queueName)).thenReturn(queue);
+        when(session.createProducer(queue)).thenReturn(messageProducer);
+        return new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), true, senderConfig);
+    }
+
+    @Test
+    public void testCachedProducerIsReused() throws Exception {
+        final ActiveMQSender sender = createCachingSender("myQueue");
+
+        sender.send(session -> textMessage);
+        sender.send(session -> textMessage);
+
+        verify(connectionFactory, times(1)).createConnection();
+        verify(session, times(1)).createProducer(queue);
+        verify(messageProducer).setDeliveryMode(DeliveryMode.PERSISTENT);
+        verify(messageProducer, times(2)).send(textMessage);
+        verify(messageProducer, never()).close();
+        verify(connection, never()).close();
+
+        sender.close();
+        verify(messageProducer).close();
+        verify(session).close();
+        verify(connection).close();
+    }
+
+    @Test
+    public void testCachedProducerIsClosedWhenSendFails() throws Exception {
+        final ActiveMQSender sender = createCachingSender("myQueue");
+        doThrow(new JMSException("Connection broken")).doNothing().when(messageProducer).send(textMessage);
+
+        try {
+            sender.send(session -> textMessage);
+            fail("Expected JMSException was not thrown");
+        } catch (RuntimeException re) {
+            assertEquals("Connection broken", re.getCause().getMessage());
+        }
+        verify(connection).close();
+
+        // A new connection is created for the next message
+        sender.send(session -> textMessage);
+        verify(connectionFactory, times(2)).createConnection();
+        verify(messageProducer, times(2)).send(textMessage);
+    }
+
     @Test
     public void testSendJson() throws Exception {
 
@@ -153,4 +265,11 @@ public class ActiveMQSenderImplTest {
     public void testSend1() throws Exception {
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUtf8Length() throws Exception {
+        for (String s : new String[]{"", "json", "\u00e6\u00f8\u00e5", "\u20ac", "\ud83d\ude00", "\ud83d", "a\ude00b"}) {
+            assertEquals(s, s.getBytes(StandardCharsets.UTF_8).length, ActiveMQSenderImpl.utf8Length(s));
+        }
+    }
+}
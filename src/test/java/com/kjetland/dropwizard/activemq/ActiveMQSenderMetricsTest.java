@@ -0,0 +1,136 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.Connection;
+import javax.jms.Session;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ActiveMQSenderMetricsTest {
+
+    final String url = "tcp://localhost:31219";
+    final String destinationName = "queue:metricsQueue";
+    final String senderName = "ActiveMQ.sender." + destinationName;
+
+    BrokerService broker;
+    ActiveMQPooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+    MetricRegistry metricRegistry = new MetricRegistry();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new ActiveMQPooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+        connectionFactory.registerMetrics(metricRegistry, "ActiveMQ.pool");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connectionFactory.stop();
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private long timerCount(String name) {
+        return metricRegistry.getTimers().get(MetricRegistry.name(senderName, name)).getCount();
+    }
+
+    private int gauge(String name) {
+        return (Integer) metricRegistry.getGauges().get(MetricRegistry.name("ActiveMQ.pool", name)).getValue();
+    }
+
+    @Test
+    public void testSendMetrics() throws Exception {
+        ActiveMQSenderImpl sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
+        sender.registerMetrics(metricRegistry, senderName);
+
+        sender.send("a");
+        sender.send("b");
+        sender.sendJson("\"c\"");
+        sender.sendAll(Arrays.asList("d", "e"));
+        sender.sendAsync("f").toCompletableFuture().get(10, TimeUnit.SECONDS);
+        try {
+            // Jackson can not serialize an empty bean
+            sender.send(new Object());
+            fail("Expected the send to fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        // The async send is timed when the broker has the message
+        assertEquals(4, timerCount("send"));
+        assertEquals(1, timerCount("sendAll"));
+        assertEquals(5, timerCount("serialize"));
+        assertEquals(6, metricRegistry.getHistograms().get(MetricRegistry.name(senderName, "payloadSize")).getCount());
+        assertEquals(1, metricRegistry.getMeters().get(MetricRegistry.name(senderName, "failures")).getCount());
+    }
+
+    @Test
+    public void testPoolGauges() throws Exception {
+        connectionFactory.setMaxConnections(1);
+        connectionFactory.setMaximumActiveSessionPerConnection(1);
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
+
+        sender.send("a");
+        assertEquals(1, gauge("connections"));
+        assertEquals(0, gauge("activeSessions"));
+        assertEquals(1, gauge("idleSessions"));
+        assertEquals(0, gauge("waitingForSession"));
+
+        // Hold the only session, so the sender has to wait for it
+        Connection connection = connectionFactory.createConnection();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        assertEquals(1, gauge("activeSessions"));
+        // Getting a session from a pool that is not full is not waiting
+        assertEquals(0, gauge("waitingForSession"));
+
+        CompletableFuture<Void> blockedSend = CompletableFuture.runAsync(() -> sender.send("b"));
+        long start = System.currentTimeMillis();
+        while (gauge("waitingForSession") == 0 && System.currentTimeMillis() - start < 5000) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, gauge("waitingForSession"));
+        assertFalse(blockedSend.isDone());
+
+        session.close();
+        connection.close();
+        blockedSend.get(10, TimeUnit.SECONDS);
+        assertEquals(0, gauge("waitingForSession"));
+        assertTrue(gauge("idleSessions") >= 1);
+    }
+
+    @Test
+    public void testPoolGaugesCanBeRegisteredAgain() throws Exception {
+        ActiveMQPooledConnectionFactory otherConnectionFactory = new ActiveMQPooledConnectionFactory();
+        otherConnectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+        otherConnectionFactory.registerMetrics(metricRegistry, "ActiveMQ.pool");
+
+        ActiveMQSender sender = new ActiveMQSenderImpl(otherConnectionFactory, objectMapper, destinationName, Optional.<Integer>empty(), false);
+        sender.send("a");
+        // The gauges now report the new factory
+        assertEquals(1, gauge("connections"));
+        otherConnectionFactory.stop();
+    }
+}
@@ -0,0 +1,111 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.jms.pool.PooledConnectionFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.Message;
+import javax.jms.Session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ActiveMQSenderSendAllTest {
+
+    final String url = "tcp://localhost:31219";
+    final String queueName = "sendAllQueue";
+
+    BrokerService broker;
+    PooledConnectionFactory connectionFactory;
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        connectionFactory = new PooledConnectionFactory();
+        connectionFactory.setConnectionFactory(new ActiveMQConnectionFactory(url));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connectionFactory.stop();
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private long messagesOnQueue() throws Exception {
+        return broker.getDestination(new ActiveMQQueue(queueName)).getDestinationStatistics().getMessages().getCount();
+    }
+
+    @Test
+    public void testAllMessagesAreSent() throws Exception {
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), true);
+
+        List<Integer> objects = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            objects.add(i);
+        }
+        sender.sendAll(objects);
+
+        assertEquals(500, messagesOnQueue());
+    }
+
+    @Test
+    public void testNoMessagesAreSentWhenOneFails() throws Exception {
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, objectMapper, queueName, Optional.<Integer>empty(), true);
+
+        try {
+            // Jackson can not serialize an Object without properties
+            sender.sendAll(Arrays.asList(1, 2, new Object(), 4));
+            fail("Expected sendAll to fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        sender.send(5);
+
+        assertEquals(1, messagesOnQueue());
+    }
+
+    @Test
+    public void testDefaultSendAllUsesSend() throws Exception {
+        List<Object> sent = new ArrayList<>();
+        // Like the senders implemented before sendAll was added
+        ActiveMQSender sender = new ActiveMQSender() {
+            @Override
+            public void sendJson(String json) {
+                send(json);
+            }
+
+            @Override
+            public void send(Object object) {
+                sent.add(object);
+            }
+
+            @Override
+            public void send(JMSFunction<Session, Message> messageCreator) {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        sender.sendAll(Arrays.asList(1, 2, 3));
+
+        assertEquals(Arrays.asList(1, 2, 3), sent);
+    }
+}
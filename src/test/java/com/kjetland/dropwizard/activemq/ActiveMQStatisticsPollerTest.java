@@ -0,0 +1,108 @@
+package com.kjetland.dropwizard.activemq;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.plugin.StatisticsBrokerPlugin;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ActiveMQStatisticsPollerTest {
+
+    final String url = "tcp://localhost:31219";
+    final String destinationName = "queue:statisticsQueue";
+
+    BrokerService broker;
+    ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(url);
+    MetricRegistry metricRegistry = new MetricRegistry();
+    ActiveMQStatisticsPoller poller;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setPlugins(new BrokerPlugin[]{new StatisticsBrokerPlugin()});
+        // configure the broker
+        broker.addConnector(url);
+        broker.start();
+
+        ActiveMQStatisticsConfig config = new ActiveMQStatisticsConfig();
+        config.pollIntervalMillis = 100;
+        config.maxQueueSize = 3L;
+        poller = new ActiveMQStatisticsPoller(connectionFactory, config, metricRegistry, "ActiveMQ.statistics");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        poller.stop();
+        broker.stop();
+        // Just give the broker some time to stop
+        Thread.sleep(1500);
+    }
+
+    private Object gauge(String name) {
+        return metricRegistry.getGauges().get(MetricRegistry.name("ActiveMQ.statistics", destinationName, name)).getValue();
+    }
+
+    private void waitFor(Supplier<Boolean> condition) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (!condition.get() && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(50);
+        }
+    }
+
+    @Test
+    public void testQueueSizeAndConsumerCount() throws Exception {
+        poller.addDestination(destinationName);
+        assertNull(gauge("queueSize"));
+        assertFalse(poller.execute().isHealthy());
+
+        poller.start();
+        waitFor(() -> poller.execute().isHealthy());
+        // The broker does not have the queue yet
+        assertEquals("No statistics for " + destinationName, poller.execute().getMessage());
+
+        ActiveMQSender sender = new ActiveMQSenderImpl(connectionFactory, new ObjectMapper(), destinationName, Optional.<Integer>empty(), false);
+        for (int i = 0; i < 5; i++) {
+            sender.send(i);
+        }
+        waitFor(() -> Objects.equals(5L, gauge("queueSize")));
+        assertEquals(5L, gauge("queueSize"));
+        assertEquals(5L, gauge("enqueueCount"));
+        assertEquals(0L, gauge("consumerCount"));
+        assertFalse(poller.execute().isHealthy());
+
+        Connection connection = connectionFactory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(session.createQueue("statisticsQueue"));
+            for (int i = 0; i < 5; i++) {
+                consumer.receive(1000);
+            }
+            waitFor(() -> Objects.equals(0L, gauge("queueSize")));
+            assertEquals(0L, gauge("queueSize"));
+            assertEquals(5L, gauge("dequeueCount"));
+            assertEquals(1L, gauge("consumerCount"));
+            assertTrue(poller.execute().isHealthy());
+        } finally {
+            connection.close();
+        }
+    }
+}
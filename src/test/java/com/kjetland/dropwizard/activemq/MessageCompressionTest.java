@@ -0,0 +1,119 @@
+package com.kjetland.dropwizard.activemq;
+
+import org.apache.activemq.util.ByteSequence;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageCompressionTest {
+
+    private byte[] createJson(int entries) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < entries; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"entry-").append(i).append("\"}");
+        }
+        return sb.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void assertRoundTrip(MessageCompression compression) throws Exception {
+        byte[] json = createJson(1000);
+        // Compress from the middle of a larger array, like when compressing a reused buffer
+        byte[] buffer = new byte[json.length + 20];
+        System.arraycopy(json, 0, buffer, 10, json.length);
+
+        ByteSequence compressed = compression.compress(buffer, 10, json.length);
+        assertTrue(compressed.length < json.length / 2);
+
+        ByteSequence decompressed = compression.decompress(compressed.data, compressed.offset, compressed.length, json.length);
+        assertEquals(new String(json, StandardCharsets.UTF_8),
+                new String(decompressed.data, decompressed.offset, decompressed.length, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        assertRoundTrip(MessageCompression.GZIP);
+    }
+
+    @Test
+    public void testLz4() throws Exception {
+        assertRoundTrip(MessageCompression.LZ4);
+    }
+
+    private byte[] compress(MessageCompression compression, byte[] data) throws IOException {
+        ByteSequence compressed = compression.compress(data, 0, data.length);
+        return Arrays.copyOfRange(compressed.data, compressed.offset, compressed.offset + compressed.length);
+    }
+
+    private void assertRejected(MessageCompression compression, byte[] data, int maxSize) {
+        try {
+            compression.decompress(data, 0, data.length, maxSize);
+            fail("Expected decompress to fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTooLargeMessagesAreRejected() throws Exception {
+        byte[] json = createJson(1000);
+        for (MessageCompression compression : new MessageCompression[]{MessageCompression.GZIP, MessageCompression.LZ4}) {
+            assertRejected(compression, compress(compression, json), json.length - 1);
+        }
+    }
+
+    @Test
+    public void testSizeSetBySenderIsNotTrusted() throws Exception {
+        byte[] json = createJson(1000);
+
+        // An lz4-message claiming to be 2 GB, and one with a negative size
+        byte[] lz4 = compress(MessageCompression.LZ4, json);
+        lz4[0] = (byte) 0x7f;
+        assertRejected(MessageCompression.LZ4, lz4, 64 * 1024 * 1024);
+        lz4[0] = (byte) 0xff;
+        assertRejected(MessageCompression.LZ4, lz4, 64 * 1024 * 1024);
+
+        // A gzip-message where the trailer claims it is smaller than it is
+        byte[] gzip = compress(MessageCompression.GZIP, json);
+        gzip[gzip.length - 4] = 10;
+        gzip[gzip.length - 3] = 0;
+        gzip[gzip.length - 2] = 0;
+        gzip[gzip.length - 1] = 0;
+        assertRejected(MessageCompression.GZIP, gzip, json.length / 2);
+    }
+
+    @Test
+    public void testCorruptLz4MessagesAreRejected() throws Exception {
+        byte[] json = createJson(1000);
+        byte[] lz4 = compress(MessageCompression.LZ4, json);
+
+        // Truncated - the decompressor must not read past the end of the message
+        assertRejected(MessageCompression.LZ4, Arrays.copyOf(lz4, lz4.length / 2), 64 * 1024 * 1024);
+        // Also not when there is garbage after it in the array
+        byte[] buffer = Arrays.copyOf(lz4, lz4.length);
+        Arrays.fill(buffer, lz4.length / 2, buffer.length, (byte) 'x');
+        try {
+            MessageCompression.LZ4.decompress(buffer, 0, lz4.length / 2, 64 * 1024 * 1024);
+            fail("Expected decompress to fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Claiming to be larger than it is
+        lz4[2] = (byte) (lz4[2] + 1);
+        assertRejected(MessageCompression.LZ4, lz4, 64 * 1024 * 1024);
+    }
+
+    @Test
+    public void testContentEncoding() throws Exception {
+        assertEquals(MessageCompression.LZ4, MessageCompression.fromContentEncoding("lz4"));
+        assertEquals(MessageCompression.GZIP, MessageCompression.fromContentEncoding(MessageCompression.GZIP.getContentEncoding()));
+        assertNull(MessageCompression.fromContentEncoding("br"));
+    }
+}